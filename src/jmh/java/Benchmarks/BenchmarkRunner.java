@@ -0,0 +1,38 @@
+package Benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of target/benchmarks.jar. It accepts the normal JMH command line (for example a benchmark regex or
+ * "-p messages=10000") and runs the selected benchmarks once for every thread count listed in the
+ * bench.threads system property (default "1,4,16"). Each run writes its results to target/jmh-threads-{n}.json so
+ * numbers from before and after a change can be compared. The GC profiler is always on, so every result also reports
+ * the allocation rate (gc.alloc.rate.norm is the number of bytes allocated per operation).
+ *
+ * java -Dbench.threads=1,8 -jar target/benchmarks.jar DAOBenchmark -p messages=10000
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String threadCounts = System.getProperty("bench.threads", "1,4,16");
+
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-threads-" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
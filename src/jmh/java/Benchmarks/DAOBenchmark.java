@@ -0,0 +1,120 @@
+package Benchmarks;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Model.MessageField;
+import Util.ConnectionUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the DAO layer. Every benchmark runs against an H2 database that has been preloaded with the
+ * number of messages given by the "messages" parameter, so we can see how each query behaves as the data grows.
+ *
+ * The benchmarks use their own database file (h2/benchmark) so they never wipe the application's data.
+ *
+ * The thread count is not a @Param because JMH fixes it per run; use BenchmarkRunner (or the -t flag) to run the
+ * same benchmarks at several thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Ddb.url=jdbc:h2:./h2/benchmark")
+public class DAOBenchmark {
+
+    /**
+     * How many messages are loaded into the message table before the benchmarks run.
+     */
+    @Param({"10000", "1000000", "10000000"})
+    public int messages;
+
+    /**
+     * How many accounts the preloaded messages are spread across.
+     */
+    @Param({"1000"})
+    public int accounts;
+
+    /**
+     * The DAO object, needed for the methods of MessageDAO that are not static.
+     */
+    private MessageDAO messageDAO;
+
+    /**
+     * Load the dataset once per trial with DatasetGenerator. Every account is named "user{n}" with the password
+     * "password{n}" so the login benchmark can pick a random existing account.
+     */
+    @Setup(Level.Trial)
+    public void loadDataset() throws SQLException {
+        messageDAO = new MessageDAO();
+        ConnectionUtil.resetTestDatabase();
+        DatasetGenerator.load(ConnectionUtil.getConnection(), accounts, messages, 42);
+    }
+
+    /**
+     * @return a random message_id that exists in the preloaded dataset.
+     */
+    private int randomMessageId() {
+        return 1 + ThreadLocalRandom.current().nextInt(messages);
+    }
+
+    /**
+     * @return a random account_id that exists in the preloaded dataset.
+     */
+    private int randomAccountId() {
+        return 1 + ThreadLocalRandom.current().nextInt(accounts);
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        return MessageDAO.insertMessage(new Message(randomAccountId(), "benchmark insert", 1669947792L));
+    }
+
+    @Benchmark
+    public Message getMessageById() throws SQLException {
+        return MessageDAO.getMessageById(randomMessageId());
+    }
+
+    @Benchmark
+    public void getAllMessages(Blackhole blackhole) {
+        List<Message> all = messageDAO.getAllMessages();
+        blackhole.consume(all);
+    }
+
+    /**
+     * getAllMessages reading only message_id and time_posted_epoch, as GET /messages?fields=... does.
+     */
+    @Benchmark
+    public void getAllMessageIdsAndTimes(Blackhole blackhole) {
+        List<Message> all = messageDAO.getAllMessages(EnumSet.of(MessageField.MESSAGE_ID, MessageField.TIME_POSTED_EPOCH));
+        blackhole.consume(all);
+    }
+
+    @Benchmark
+    public List<Message> retriveAllMessagesForUser() throws SQLException {
+        return messageDAO.retriveAllMessagesForUser(randomAccountId());
+    }
+
+    @Benchmark
+    public boolean updateMessageText() {
+        return messageDAO.updateMessageText(randomMessageId(), "benchmark update");
+    }
+
+    @Benchmark
+    public Account getAccountByUserNameAndPassword() {
+        int accountId = randomAccountId();
+        if (accountId == 1) {
+            return AccountDAO.getAccountByUserNameAndPassword("testuser1", "password");
+        }
+        return AccountDAO.getAccountByUserNameAndPassword("user" + accountId, "password" + accountId);
+    }
+}
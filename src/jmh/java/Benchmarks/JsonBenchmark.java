@@ -0,0 +1,122 @@
+package Benchmarks;
+
+import Model.Account;
+import Model.Message;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.javalin.json.JavalinJackson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for encoding and decoding Message and Account JSON, either a single object (size 1) or a list of
+ * objects. The "controller" benchmarks copy what SocialMediaController does today: a new ObjectMapper on every call,
+ * writeValueAsString, and then ctx.json() on the resulting String. The other benchmarks are the alternatives we could
+ * switch to. Run with the GC profiler (BenchmarkRunner adds it) to see the allocation rate of each one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    /**
+     * Which model class is encoded and decoded.
+     */
+    @Param({"Message", "Account"})
+    public String model;
+
+    /**
+     * 1 means a single object, anything larger means a JSON array of that many objects.
+     */
+    @Param({"1", "100", "10000"})
+    public int size;
+
+    /**
+     * One ObjectMapper shared by all calls, which is safe once it has been configured.
+     */
+    private final ObjectMapper sharedMapper = new ObjectMapper();
+
+    /**
+     * The JSON mapper ctx.json() uses by default.
+     */
+    private final JavalinJackson javalinJackson = new JavalinJackson();
+
+    private Object payload;
+    private String json;
+    private JavaType type;
+    private ObjectReader reader;
+    private ObjectWriter writer;
+
+    @Setup(Level.Trial)
+    public void createPayload() throws JsonProcessingException {
+        List<Object> objects = new ArrayList<>();
+        for (int i = 1; i <= size; i++) {
+            if (model.equals("Message")) {
+                objects.add(new Message(i, 1 + (i % 1000), "benchmark message number " + i, 1669947792L + i));
+            } else {
+                objects.add(new Account(i, "user" + i, "password" + i));
+            }
+        }
+        Class<?> modelClass = model.equals("Message") ? Message.class : Account.class;
+        if (size == 1) {
+            payload = objects.get(0);
+            type = sharedMapper.constructType(modelClass);
+        } else {
+            payload = objects;
+            type = sharedMapper.getTypeFactory().constructCollectionType(List.class, modelClass);
+        }
+        json = sharedMapper.writeValueAsString(payload);
+        reader = sharedMapper.readerFor(type);
+        writer = sharedMapper.writerFor(type);
+    }
+
+    @Benchmark
+    public String serializeControllerPattern() throws JsonProcessingException {
+        // What the controller does today: a new mapper, writeValueAsString, then ctx.json(String).
+        ObjectMapper objectMapper = new ObjectMapper();
+        String body = objectMapper.writeValueAsString(payload);
+        return javalinJackson.toJsonString(body, String.class);
+    }
+
+    @Benchmark
+    public String serializeCtxJson() {
+        // ctx.json(object) without the intermediate String.
+        return javalinJackson.toJsonString(payload, type);
+    }
+
+    @Benchmark
+    public String serializeSharedMapper() throws JsonProcessingException {
+        return sharedMapper.writeValueAsString(payload);
+    }
+
+    @Benchmark
+    public byte[] serializeSharedWriterToBytes() throws JsonProcessingException {
+        return writer.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public Object parseControllerPattern() throws JsonProcessingException {
+        // What the controller does today: a new mapper for every request body.
+        ObjectMapper objectMapper = new ObjectMapper();
+        return objectMapper.readValue(json, type);
+    }
+
+    @Benchmark
+    public Object parseSharedMapper() throws JsonProcessingException {
+        return sharedMapper.readValue(json, type);
+    }
+
+    @Benchmark
+    public Object parseSharedReader() throws JsonProcessingException {
+        return reader.readValue(json);
+    }
+}
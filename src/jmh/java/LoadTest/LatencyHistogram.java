@@ -0,0 +1,98 @@
+package LoadTest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, thread safe latency histogram. Values are recorded in microseconds into log-linear buckets: every
+ * power of two is split into 64 sub-buckets, so a recorded value is never off by more than about 1.5%. Memory use is
+ * constant no matter how many values are recorded, which matters for long load runs.
+ */
+public class LatencyHistogram {
+    /**
+     * Number of sub-buckets each power of two range is split into.
+     */
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+    /**
+     * Enough ranges to hold any positive long.
+     */
+    private static final int RANGES = 64 - SUB_BUCKET_BITS + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(RANGES * SUB_BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param micros the latency in microseconds, negative values are recorded as 0
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return how many values have been recorded
+     */
+    public long count() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the largest recorded value in microseconds
+     */
+    public long max() {
+        return maxValue.get();
+    }
+
+    /**
+     * Returns the value at the given percentile, rounded up to the upper edge of its bucket.
+     *
+     * @param percentile a percentile between 0 and 100
+     * @return the latency in microseconds, or 0 if nothing has been recorded
+     */
+    public long percentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Values below 64 each get their own bucket. Larger values go into the range of their highest set bit, and into
+     * the sub-bucket given by the next 6 bits.
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int range = highestBit - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return range * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        int range = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        if (range == 0) {
+            return subBucket;
+        }
+        int shift = range - 1;
+        long lower = ((long) (SUB_BUCKETS + subBucket)) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
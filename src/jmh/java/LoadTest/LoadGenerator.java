@@ -0,0 +1,311 @@
+package LoadTest;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.Javalin;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An open-loop HTTP load generator for the social media API. Requests are scheduled at a fixed target rate no matter
+ * how fast the server answers, and every latency is measured from the time the request was supposed to be sent, not
+ * the time it actually went out. That way a server stall shows up as high latency for every request that should have
+ * been sent during the stall (the "coordinated omission" problem), instead of being hidden by the generator slowing
+ * down. The time from actually sending to receiving the response is recorded separately as the service time.
+ *
+ * All settings are system properties:
+ * load.url       base url of a running server; when not set the API is started in-process on load.port (default 8080)
+ * load.rate      target requests per second (default 500)
+ * load.duration  seconds to run (default 30)
+ * load.warmup    seconds to run before measuring (default 5)
+ * load.mix       weights per operation (default register=5,login=10,post=20,read=40,timeline=10,patch=10,delete=5)
+ * load.seed      random seed, so the same settings always produce the same request sequence (default 42)
+ * load.report    path prefix of the report files (default target/load-report, written as .json and .html)
+ *
+ * java -Dload.rate=2000 -Dload.duration=60 -cp target/benchmarks.jar LoadTest.LoadGenerator
+ */
+public class LoadGenerator {
+
+    /**
+     * The operations the generator knows how to send.
+     */
+    enum Operation {
+        register, login, post, read, timeline, patch, delete
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient webClient;
+    private final String baseUrl;
+    private final Random random;
+
+    /**
+     * Accounts and messages created during the run, so reads, updates and deletes target data that exists.
+     */
+    private final List<Account> accounts = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedDeque<Integer> messageIds = new ConcurrentLinkedDeque<>();
+    private final AtomicLong usernameCounter = new AtomicLong();
+
+    private final Map<Operation, LatencyHistogram> responseTimes = new EnumMap<>(Operation.class);
+    private final Map<Operation, LatencyHistogram> serviceTimes = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicInteger> errors = new EnumMap<>(Operation.class);
+
+    /**
+     * While this is false results are thrown away, which is how the warmup is kept out of the report.
+     */
+    private volatile boolean recording = false;
+
+    public LoadGenerator(String baseUrl, long seed) {
+        this.baseUrl = baseUrl;
+        this.random = new Random(seed);
+        this.webClient = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2))
+                .build();
+        for (Operation operation : Operation.values()) {
+            responseTimes.put(operation, new LatencyHistogram());
+            serviceTimes.put(operation, new LatencyHistogram());
+            errors.put(operation, new AtomicInteger());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("load.url");
+        Javalin app = null;
+        if (url == null) {
+            int port = Integer.getInteger("load.port", 8080);
+            ConnectionUtil.resetTestDatabase();
+            app = new SocialMediaController().startAPI();
+            app.start(port);
+            url = "http://localhost:" + port;
+        }
+
+        LoadGenerator generator = new LoadGenerator(url, Long.getLong("load.seed", 42));
+        Map<Operation, Integer> mix = parseMix(System.getProperty("load.mix",
+                "register=5,login=10,post=20,read=40,timeline=10,patch=10,delete=5"));
+        int rate = Integer.getInteger("load.rate", 500);
+        int duration = Integer.getInteger("load.duration", 30);
+        int warmup = Integer.getInteger("load.warmup", 5);
+
+        generator.seed(20);
+        generator.run(mix, rate, warmup, false);
+        generator.run(mix, rate, duration, true);
+
+        String report = System.getProperty("load.report", "target/load-report");
+        generator.writeReport(Path.of(report + ".json"), Path.of(report + ".html"), rate, duration);
+        System.out.println("Load report written to " + report + ".json and " + report + ".html");
+
+        if (app != null) {
+            app.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Parses a mix like "read=40,post=20" into operation weights.
+     */
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] keyValue = part.trim().split("=");
+            weights.put(Operation.valueOf(keyValue[0].trim()), Integer.parseInt(keyValue[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Registers a few accounts and posts a few messages synchronously so every operation has something to work on
+     * from the very first request.
+     */
+    private void seed(int count) throws IOException, InterruptedException {
+        for (int i = 0; i < count; i++) {
+            HttpResponse<String> response = webClient.send(buildRequest(Operation.register), HttpResponse.BodyHandlers.ofString());
+            remember(Operation.register, response.body());
+            response = webClient.send(buildRequest(Operation.post), HttpResponse.BodyHandlers.ofString());
+            remember(Operation.post, response.body());
+        }
+    }
+
+    /**
+     * Sends requests at the target rate for the given number of seconds. The scheduling thread never waits for a
+     * response; it only sleeps until the next intended send time.
+     */
+    private void run(Map<Operation, Integer> mix, int rate, int seconds, boolean record) throws InterruptedException {
+        recording = record;
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        long intervalNanos = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long requests = (long) rate * seconds;
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+
+        for (long i = 0; i < requests; i++) {
+            long intendedStart = start + i * intervalNanos;
+            long wait = intendedStart - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            Operation operation = pick(mix, totalWeight);
+            inFlight.add(send(operation, intendedStart));
+            if (inFlight.size() >= 10_000) {
+                inFlight.removeIf(CompletableFuture::isDone);
+            }
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private Operation pick(Map<Operation, Integer> mix, int totalWeight) {
+        int roll = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        return Operation.read;
+    }
+
+    private CompletableFuture<?> send(Operation operation, long intendedStart) {
+        HttpRequest request = buildRequest(operation);
+        long actualStart = System.nanoTime();
+        return webClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, throwable) -> {
+                    long end = System.nanoTime();
+                    if (!recording) {
+                        return;
+                    }
+                    responseTimes.get(operation).record((end - intendedStart) / 1000);
+                    serviceTimes.get(operation).record((end - actualStart) / 1000);
+                    if (throwable != null || response.statusCode() >= 500) {
+                        errors.get(operation).incrementAndGet();
+                    } else {
+                        remember(operation, response.body());
+                    }
+                });
+    }
+
+    /**
+     * Keeps track of the accounts and messages the server created, and forgets deleted messages.
+     */
+    private void remember(Operation operation, String body) {
+        try {
+            if (operation == Operation.register && !body.isEmpty()) {
+                accounts.add(objectMapper.readValue(body, Account.class));
+            } else if (operation == Operation.post && !body.isEmpty()) {
+                messageIds.add(objectMapper.readValue(body, Message.class).getMessage_id());
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private HttpRequest buildRequest(Operation operation) {
+        ThreadLocalRandom current = ThreadLocalRandom.current();
+        Account account = accounts.isEmpty() ? new Account(1, "testuser1", "password")
+                : accounts.get(current.nextInt(accounts.size()));
+        Integer messageId = operation == Operation.delete ? messageIds.pollFirst() : messageIds.peekLast();
+        if (messageId == null) {
+            messageId = 1;
+        }
+        try {
+            switch (operation) {
+                case register:
+                    return post("/register", objectMapper.writeValueAsString(
+                            new Account("load" + usernameCounter.incrementAndGet() + "-" + System.nanoTime(), "password")));
+                case login:
+                    return post("/login", objectMapper.writeValueAsString(
+                            new Account(account.getUsername(), account.getPassword())));
+                case post:
+                    return post("/messages", objectMapper.writeValueAsString(
+                            new Message(account.getAccount_id(), randomText(current), System.currentTimeMillis() / 1000)));
+                case read:
+                    return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId)).GET().build();
+                case timeline:
+                    return HttpRequest.newBuilder(URI.create(baseUrl + "/accounts/" + account.getAccount_id() + "/messages")).GET().build();
+                case patch:
+                    return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId))
+                            .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"" + randomText(current) + "\"}"))
+                            .header("Content-Type", "application/json")
+                            .build();
+                default:
+                    return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId)).DELETE().build();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private static String randomText(ThreadLocalRandom random) {
+        StringBuilder text = new StringBuilder();
+        int length = 10 + random.nextInt(200);
+        while (text.length() < length) {
+            text.append("word").append(random.nextInt(1000)).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * Writes the throughput and latency percentiles of every operation as JSON, plus the same numbers as an HTML
+     * table.
+     */
+    private void writeReport(Path jsonPath, Path htmlPath, int rate, int seconds) throws IOException {
+        double[] percentiles = {50, 90, 99, 99.9, 100};
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("target_rate", rate);
+        report.put("duration_seconds", seconds);
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        StringBuilder rows = new StringBuilder();
+
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = responseTimes.get(operation);
+            if (histogram.count() == 0) {
+                continue;
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("requests", histogram.count());
+            entry.put("errors", errors.get(operation).get());
+            entry.put("throughput_per_second", histogram.count() / (double) seconds);
+            Map<String, Long> response = new LinkedHashMap<>();
+            Map<String, Long> service = new LinkedHashMap<>();
+            rows.append("<tr><td>").append(operation).append("</td><td>").append(histogram.count())
+                    .append("</td><td>").append(errors.get(operation).get()).append("</td>");
+            for (double percentile : percentiles) {
+                String key = "p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile));
+                response.put(key, histogram.percentile(percentile));
+                service.put(key, serviceTimes.get(operation).percentile(percentile));
+                rows.append("<td>").append(histogram.percentile(percentile)).append("</td>");
+            }
+            rows.append("</tr>\n");
+            entry.put("response_time_micros", response);
+            entry.put("service_time_micros", service);
+            endpoints.put(operation.name(), entry);
+        }
+        report.put("endpoints", endpoints);
+
+        Files.createDirectories(jsonPath.toAbsolutePath().getParent());
+        Files.writeString(jsonPath, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+        Files.writeString(htmlPath, "<html><head><title>Load report</title></head><body>\n"
+                + "<h1>Load report</h1><p>Target rate " + rate + " req/s for " + seconds + " s. "
+                + "Response times in microseconds, measured from the intended send time.</p>\n"
+                + "<table border=\"1\"><tr><th>endpoint</th><th>requests</th><th>errors</th>"
+                + "<th>p50</th><th>p90</th><th>p99</th><th>p99.9</th><th>max</th></tr>\n"
+                + rows + "</table></body></html>\n");
+    }
+}
@@ -0,0 +1,118 @@
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.RoundRobinProxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several API processes against one shared database. This process starts an H2 TCP server serving the database
+ * of db.url, makes sure the tables exist, starts cluster.instances copies of Main on cluster.base-port,
+ * cluster.base-port + 1, ... and a round-robin proxy on server.port in front of them. An API process that exits is
+ * started again, and the proxy skips it until it is back.
+ *
+ * Each API process keeps its own scratch files (the message meta index and the search index), named after its port.
+ * The log and memory storage engines keep their data inside one process, so the cluster only runs with
+ * storage.engine=jdbc.
+ *
+ * java -Dcluster.instances=4 -cp {classpath} ClusterMain
+ */
+public class ClusterMain {
+    public static void main(String[] args) throws SQLException, IOException, InterruptedException {
+        if (!AppConfig.getString("storage.engine", "jdbc").equals("jdbc")) {
+            throw new IllegalStateException("The cluster shares its data through the database, so it needs "
+                    + "storage.engine=jdbc");
+        }
+        int databasePort = AppConfig.getInt("db.server.port", 9092);
+        String sharedUrl = sharedUrl(AppConfig.getString("db.url", "jdbc:h2:./h2/db"), databasePort);
+        String sharedShardUrl = sharedUrl(AppConfig.getString("db.shard.url", "jdbc:h2:./h2/shard{n}"), databasePort);
+
+        // Start the database server here and connect through it, so the schema check runs once before any API process.
+        System.setProperty("db.server.start", "true");
+        System.setProperty("db.url", sharedUrl);
+        System.setProperty("db.shard.url", sharedShardUrl);
+        ConnectionUtil.getConnection();
+
+        int instances = AppConfig.getInt("cluster.instances", 0);
+        if (instances <= 0) {
+            instances = Runtime.getRuntime().availableProcessors();
+        }
+        int basePort = AppConfig.getInt("cluster.base-port", 8081);
+
+        List<InetSocketAddress> backends = new ArrayList<>();
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            backends.add(new InetSocketAddress("localhost", basePort + i));
+            processes.add(startInstance(basePort + i, sharedUrl, sharedShardUrl));
+        }
+        new RoundRobinProxy(AppConfig.getInt("server.port", 8080), backends).start();
+
+        // Stop the API processes together with this one.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> processes.forEach(Process::destroy)));
+
+        // Restart any API process that exits.
+        while (true) {
+            Thread.sleep(1000);
+            for (int i = 0; i < processes.size(); i++) {
+                if (!processes.get(i).isAlive()) {
+                    System.out.println("API instance on port " + (basePort + i) + " exited, restarting it");
+                    processes.set(i, startInstance(basePort + i, sharedUrl, sharedShardUrl));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param url  the db.url setting, e.g. jdbc:h2:./h2/db
+     * @param port the port of the H2 TCP server
+     * @return the url other processes reach the same database through, e.g. jdbc:h2:tcp://localhost:9092/./h2/db;
+     * a url that is already a server url is kept as it is. Also used for db.shard.url, keeping its {n}.
+     */
+    static String sharedUrl(String url, int port) {
+        String path = url.substring("jdbc:h2:".length());
+        if (path.startsWith("tcp:") || path.startsWith("ssl:")) {
+            return url;
+        }
+        if (path.startsWith("file:")) {
+            path = path.substring("file:".length());
+        }
+        return "jdbc:h2:tcp://localhost:" + port + "/" + path;
+    }
+
+    /**
+     * @return the path with the port added before its extension, e.g. ./h2/search-8081.idx for ./h2/search.idx
+     */
+    static String instancePath(String path, int port) {
+        int extension = path.lastIndexOf('.');
+        if (extension <= path.lastIndexOf('/') + 1) {
+            return path + "-" + port;
+        }
+        return path.substring(0, extension) + "-" + port + path.substring(extension);
+    }
+
+    /**
+     * Starts Main in a new JVM with the same classpath, listening on the given port, using the shared database and
+     * scratch files of its own.
+     */
+    private static Process startInstance(int port, String databaseUrl, String shardUrl) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String metaIndexFile = AppConfig.getString("service.meta-index.file", "./h2/message-meta.idx");
+        String searchFile = AppConfig.getString("service.search.file", "./h2/search.idx");
+        return new ProcessBuilder(java,
+                "-cp", System.getProperty("java.class.path"),
+                "-Dserver.port=" + port,
+                "-Ddb.url=" + databaseUrl,
+                "-Ddb.shard.url=" + shardUrl,
+                "-Ddb.mode=production",
+                "-Ddb.server.start=false",
+                "-Dservice.meta-index.file=" + instancePath(metaIndexFile, port),
+                "-Dservice.search.file=" + instancePath(searchFile, port),
+                "Main")
+                .inheritIO()
+                .start();
+    }
+}
@@ -2,16 +2,35 @@ package Controller;
 
 import Model.Account;
 import Model.Message;
+import Model.MessageEvent;
+import Model.MessageField;
 import Service.AccountService;
+import Service.MessageFeed;
 import Service.MessageService;
+import Service.ResponseCache;
+import Util.AppConfig;
+import Util.ResponseCompression;
+import Util.TunedServer;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import io.javalin.websocket.WsConnectContext;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.websocket.api.StatusCode;
 
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -19,24 +38,58 @@ import java.util.List;
  * refer to prior mini-project labs and lecture materials for guidance on how a controller may be built.//
  */
 public class SocialMediaController {
+    /**
+     * The feed subscription of each open WebSocket, by session id.
+     */
+    private final Map<String, MessageFeed.Subscription> socketSubscriptions = new ConcurrentHashMap<>();
+
     /**
      * In order for the test cases to work, you will need to write the endpoints in the startAPI() method, as the test
      * suite must receive a Javalin object from this method.
      *
+     * The Jetty thread pool, connectors and request size limit are configured from AppConfig.
+     *
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            config.jetty.server(TunedServer::create);
+            config.http.maxRequestSize = AppConfig.getLong("server.max-request-size", 1000000);
+            // Responses are compressed by ResponseCompression instead
+            config.compression.none();
+        });
         app.get("example-endpoint", this::exampleHandler);
 
         app.post("/register", this::registerHandler);
         app.post("/login", this::loginHandler);
         app.post("/messages", this::messageHandler);
         app.get("/messages", this::getAllMessageHandler);
+        // Registered before /messages/{message_id}, which would otherwise take "search" as a message_id
+        app.get("/messages/search", this::searchMessagesHandler);
+        app.get("/messages/changes", this::messageChangesHandler);
+        app.sse("/messages/stream", this::messageStreamHandler);
         app.get("/messages/{message_id}", this::getMessageByMessageIdHandler);
         app.delete("/messages/{message_id}", this::deleteMessageHandler);
         app.patch("/messages/{message_id}", this::updateMessageHandler);
         app.get("/accounts/{account_id}/messages", this::getAllMessagesForUserHandler);
+        app.get("/accounts/{account_id}/stats", this::getStatsForUserHandler);
+        app.get("/stats", this::getGlobalStatsHandler);
+        app.get("/analytics/top-posters", this::topPostersHandler);
+        app.get("/analytics/posts-per-bucket", this::postsPerBucketHandler);
+        app.get("/analytics/length-histogram", this::lengthHistogramHandler);
+        app.get("/trending", this::trendingHandler);
+        app.get("/admin/hot-messages", this::hotMessagesHandler);
+        app.ws("/messages/ws", ws -> {
+            ws.onConnect(this::messageSocketConnectHandler);
+            ws.onClose(ctx -> {
+                MessageFeed.Subscription subscription = socketSubscriptions.remove(ctx.getSessionId());
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+            });
+        });
+
+        app.after(ResponseCompression::compress);
 
         return app;
     }
@@ -150,13 +203,16 @@ public class SocialMediaController {
         // Read the request body as an Message object.
         Message message = objectMapper.readValue(ctx.body(), Message.class);
 
+        // Check if the message text is empty or longer than 254 characters, before anything is stored.
+        if ((message.getMessage_text().isBlank() || message.getMessage_text().length() > 254)) {
+            ctx.status(400);
+            return;
+        }
+
         // Insert the message into the database using the MessageService.
         Message addedMessage = MessageService.insertMessage(message);
 
-        // Check if the message text is empty or longer than 254 characters.
-        if ((message.getMessage_text().isBlank() || message.getMessage_text().length() > 254)) {
-            ctx.status(400);
-        } else if (addedMessage != null) {
+        if (addedMessage != null) {
             // If the message was successfully inserted into the database, return the inserted message as a JSON response.
             ctx.json(objectMapper.writeValueAsString(addedMessage));
         } else {
@@ -201,13 +257,36 @@ public class SocialMediaController {
     /**
      * This method handles requests to get all messages from the database.
      * It retrieves all messages using the MessageService and returns them in the response.
+     * With since and/or until (time_posted_epoch values, both inclusive) only the messages posted in that range are
+     * returned; if either is not a number, it returns a 400 Bad Request response.
+     * With fields (e.g. fields=message_id,time_posted_epoch) only those fields are read and returned; if one is not a
+     * field of a message, it returns a 400 Bad Request response.
+     * With expand=author every message also has an author object with the account_id and username of its poster.
      * If there are no messages in the database, it returns an empty list and a 200 OK response.
      *
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws SQLException if an error occurs while reading the messages in a time range.
+     * @throws JsonProcessingException if the messages cannot be encoded as JSON.
      */
-    private void getAllMessageHandler(Context ctx) {
-        // Retrieve all messages from the database.
-        List<Message> messages = MessageService.getAllMessages();
+    private void getAllMessageHandler(Context ctx) throws SQLException, JsonProcessingException {
+        long[] timeRange;
+        Set<MessageField> fields;
+        boolean expandAuthor;
+        try {
+            timeRange = timeRange(ctx);
+            fields = MessageField.parse(ctx.queryParam("fields"));
+            expandAuthor = expandAuthor(ctx);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException too
+            ctx.status(400);
+            return;
+        }
+
+        // Retrieve all messages from the database, or those posted in the requested time range.
+        Set<MessageField> read = fieldsToRead(fields, expandAuthor);
+        List<Message> messages = timeRange == null
+                ? MessageService.getAllMessages(read)
+                : MessageService.getMessagesPostedBetween(timeRange[0], timeRange[1], read);
 
         if (messages.isEmpty()) {
             // If there are no messages in the database, return an empty list and a 200 OK response.
@@ -215,28 +294,164 @@ public class SocialMediaController {
             ctx.status(200);
         } else {
             // If there are messages in the database, return them in the response.
-            ctx.json(messages);
+            sendMessages(ctx, expandAuthor ? MessageService.withAuthors(messages) : messages, fields);
+        }
+    }
+
+    /**
+     * Reads the since and until query parameters.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @return {since, until}, with a missing bound left open, or null if neither parameter was given.
+     * @throws NumberFormatException if a parameter is not a number.
+     */
+    private static long[] timeRange(Context ctx) {
+        String since = ctx.queryParam("since");
+        String until = ctx.queryParam("until");
+        if (since == null && until == null) {
+            return null;
+        }
+        return new long[]{
+                since == null ? Long.MIN_VALUE : Long.parseLong(since),
+                until == null ? Long.MAX_VALUE : Long.parseLong(until)
+        };
+    }
+
+    /**
+     * Reads the expand query parameter.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @return true if the messages are to be sent with their author (expand=author)
+     * @throws IllegalArgumentException if expand names anything else
+     */
+    private static boolean expandAuthor(Context ctx) {
+        String expand = ctx.queryParam("expand");
+        if (expand != null && !expand.equals("author")) {
+            throw new IllegalArgumentException("Cannot expand " + expand);
+        }
+        return expand != null;
+    }
+
+    /**
+     * @param fields       the fields to send
+     * @param expandAuthor whether the author of each message is sent too
+     * @return the fields to read: those sent, and posted_by to look the author up
+     */
+    private static Set<MessageField> fieldsToRead(Set<MessageField> fields, boolean expandAuthor) {
+        if (!expandAuthor || fields.contains(MessageField.POSTED_BY)) {
+            return fields;
+        }
+        Set<MessageField> read = EnumSet.copyOf(fields);
+        read.add(MessageField.POSTED_BY);
+        return read.equals(MessageField.ALL) ? MessageField.ALL : read;
+    }
+
+    /**
+     * This method handles full-text search requests: GET /messages/search?q=...&offset=...&limit=...
+     * The query can contain words, prefixes ending in * and quoted phrases, which must all match.
+     * It returns the matching messages, best match first. If q is missing or blank, or offset or limit are not
+     * numbers, it returns a 400 Bad Request response.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws SQLException if an error occurs while reading the matching messages.
+     */
+    private void searchMessagesHandler(Context ctx) throws SQLException {
+        String query = ctx.queryParam("q");
+        int offset;
+        int limit;
+        try {
+            // Read the paging parameters, defaulting to the first 20 matches and allowing at most 100 per page.
+            offset = Math.max(0, Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("offset"), "0")));
+            limit = Math.min(100, Math.max(1, Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("limit"), "20"))));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (query == null || query.isBlank()) {
+            ctx.status(400);
+            return;
+        }
+
+        // Search the messages and return the page of matches.
+        ctx.json(MessageService.searchMessages(query, offset, limit));
+    }
+
+    /**
+     * This method long-polls for new messages: GET /messages/changes?since=...&wait=...&limit=...
+     * It returns the messages with a message_id above since (default 0) at once if there are any. Otherwise the
+     * request waits, holding no thread, until a message is inserted or wait milliseconds (default and at most the
+     * configured maximum) have passed, and then returns the new messages, or an empty list. limit defaults to 100 and
+     * is at most 1000; a client passes the highest message_id it received as the next since. If a parameter is not a
+     * number or is negative, it returns a 400 Bad Request response.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @throws SQLException if an error occurs while reading the new messages.
+     */
+    private void messageChangesHandler(Context ctx) throws SQLException {
+        int since;
+        long wait;
+        int limit;
+        try {
+            since = Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("since"), "0"));
+            wait = Math.min(MessageService.getLongPollMaxWaitMillis(), Long.parseLong(Objects.requireNonNullElse(
+                    ctx.queryParam("wait"), String.valueOf(MessageService.getLongPollMaxWaitMillis()))));
+            limit = Math.min(1000, Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("limit"), "100")));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
         }
+        if (since < 0 || wait < 0 || limit < 1) {
+            ctx.status(400);
+            return;
+        }
+
+        // Retrieve the new messages, or let the request wait for one without holding this thread.
+        CompletableFuture<List<Message>> messages = MessageService.getMessagesAfter(since, limit, wait);
+        ctx.future(() -> messages.thenAccept(ctx::json));
     }
 
     /**
      * This method handles requests to get a message by its ID from the database.
      * It retrieves the message using the MessageService and returns it in the response.
      * If there is no message with the specified ID in the database, it returns a 200 OK response.
+     * With fields only those fields are returned; if one is not a field of a message, it returns a 400 Bad Request
+     * response. With expand=author the message also has an author object.
      *
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
      * @throws SQLException if an error occurs while retrieving the message from the database.
+     * @throws JsonProcessingException if the message cannot be encoded as JSON.
      */
-    private void getMessageByMessageIdHandler(Context ctx) throws SQLException {
+    private void getMessageByMessageIdHandler(Context ctx) throws SQLException, JsonProcessingException {
         // Parse the message ID from the request path parameter.
         int messageId = Integer.parseInt(ctx.pathParam("message_id"));
+        Set<MessageField> fields;
+        boolean expandAuthor;
+        try {
+            fields = MessageField.parse(ctx.queryParam("fields"));
+            expandAuthor = expandAuthor(ctx);
+        } catch (IllegalArgumentException e) {
+            ctx.status(400);
+            return;
+        }
+
+        // Count the read, so messages read often are kept cached.
+        MessageService.recordMessageRead(messageId);
+
+        if (!fields.equals(MessageField.ALL) || expandAuthor) {
+            // Only some fields, or with the author: build the body from the cached message.
+            Message message = MessageService.getMessageById(ctx, messageId);
+            if (message != null) {
+                sendMessages(ctx, expandAuthor ? MessageService.withAuthors(List.of(message)).get(0) : message, fields);
+            }
+            return;
+        }
 
-        // Retrieve the message with the specified ID from the database.
-        Message messageById = MessageService.getMessageById(ctx, messageId);
+        // Retrieve the message with the specified ID, already encoded as JSON.
+        ResponseCache.Body messageJson = MessageService.getMessageJson(ctx, messageId);
 
-        if (messageById != null) {
+        if (messageJson != null) {
             // If a message with the specified ID exists in the database, return it in the response.
-            ctx.json(messageById);
+            sendJson(ctx, messageJson);
         } else {
             // If there is no message with the specified ID in the database, return a 200 OK response.
             ctx.status(200);
@@ -244,6 +459,43 @@ public class SocialMediaController {
     }
 
 
+    /**
+     * Sends messages as JSON with only the fields asked for.
+     *
+     * @param ctx      The Javalin Context object manages information about both the HTTP request and response.
+     * @param messages a Message, an AuthoredMessage or a List of either
+     * @param fields   the fields to send
+     * @throws JsonProcessingException if the messages cannot be encoded as JSON.
+     */
+    private static void sendMessages(Context ctx, Object messages, Set<MessageField> fields) throws JsonProcessingException {
+        if (fields.equals(MessageField.ALL)) {
+            ctx.json(messages);
+            return;
+        }
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.result(MessageService.toJson(messages, fields));
+    }
+
+
+    /**
+     * Sends an encoded JSON body, compressed if the client accepts it and it is large enough, using the compressed
+     * form kept with the body so it is only compressed once.
+     *
+     * @param ctx  The Javalin Context object manages information about both the HTTP request and response.
+     * @param body the body to send
+     */
+    private static void sendJson(Context ctx, ResponseCache.Body body) {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        String encoding = ResponseCompression.negotiate(ctx);
+        if (encoding != null && ResponseCompression.worthCompressing(body.json().length)) {
+            ctx.header("Content-Encoding", encoding);
+            ctx.result(body.encoded(encoding));
+        } else {
+            ctx.result(body.json());
+        }
+    }
+
+
     /**
      * This function updates a message in the system.
      * It reads a Message object from the request body and sets its message_id property to the ID extracted from the path parameter.
@@ -282,20 +534,275 @@ public class SocialMediaController {
 
     /**
      * This method retrieves all messages for a specific account.
+     * With since and/or until (time_posted_epoch values, both inclusive) only the messages posted in that range are
+     * returned; if either is not a number, it returns a 400 Bad Request response.
+     * With fields only those fields are read and returned; if one is not a field of a message, it returns a 400 Bad
+     * Request response. With expand=author every message also has an author object.
      *
      * @param ctx The Javalin Context object manages information about both the HTTP request and response.
      * @throws SQLException If there is an error executing the SQL statement.
+     * @throws JsonProcessingException if the messages cannot be encoded as JSON.
      */
-    public void getAllMessagesForUserHandler(Context ctx) throws SQLException {
+    public void getAllMessagesForUserHandler(Context ctx) throws SQLException, JsonProcessingException {
         // Retrieve the account ID from the path parameter.
         int accountId = Integer.parseInt(ctx.pathParam("account_id"));
-
-        // Retrieve all messages for the account user.
-        List<Message> messagesByAccountUser = MessageService.getAllMessagesForUser(ctx, accountId);
+        long[] timeRange;
+        Set<MessageField> fields;
+        boolean expandAuthor;
+        try {
+            timeRange = timeRange(ctx);
+            fields = MessageField.parse(ctx.queryParam("fields"));
+            expandAuthor = expandAuthor(ctx);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException too
+            ctx.status(400);
+            return;
+        }
 
         // Set the response status to 200 and return the messages in the response body.
         ctx.status(200);
-        ctx.json(messagesByAccountUser);
+        if (timeRange == null && fields.equals(MessageField.ALL) && !expandAuthor) {
+            // All messages of the account user, already encoded as JSON.
+            sendJson(ctx, MessageService.getAllMessagesForUserJson(ctx, accountId));
+            return;
+        }
+        // All messages of the account user, or only those posted in the requested time range, reading only the
+        // fields needed.
+        Set<MessageField> read = fieldsToRead(fields, expandAuthor);
+        List<Message> messages = timeRange == null
+                ? MessageService.getAllMessagesForUser(ctx, accountId, read)
+                : MessageService.getMessagesForUserPostedBetween(accountId, timeRange[0], timeRange[1], read);
+        sendMessages(ctx, expandAuthor ? MessageService.withAuthors(messages) : messages, fields);
+    }
+
+
+    /**
+     * This method returns the statistics of an account's messages: message_count, first_post_epoch, last_post_epoch
+     * and average_text_length. An account without messages has a message_count of 0 and no post times.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void getStatsForUserHandler(Context ctx) {
+        // Retrieve the account ID from the path parameter, returning 400 Bad Request if it is not a number.
+        int accountId;
+        try {
+            accountId = Integer.parseInt(ctx.pathParam("account_id"));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+
+        ctx.json(MessageService.getStatsForAccount(accountId));
+    }
+
+    /**
+     * This method returns the statistics of all messages, in the same form as the statistics of one account but
+     * without account_id.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void getGlobalStatsHandler(Context ctx) {
+        ctx.json(MessageService.getGlobalStats());
+    }
+
+
+    /**
+     * This method reports the accounts with the most messages: GET /analytics/top-posters?limit=...
+     * limit defaults to 10 and is at most 1000. If it is not a positive number, it returns a 400 Bad Request response.
+     * Like every analytics report, it is computed from a snapshot that can be up to one refresh interval old.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void topPostersHandler(Context ctx) {
+        int limit;
+        try {
+            limit = Math.min(1000, Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("limit"), "10")));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (limit < 1) {
+            ctx.status(400);
+            return;
+        }
+
+        ctx.json(MessageService.getTopPosters(limit));
+    }
+
+    /**
+     * This method reports how many messages were posted in each time bucket:
+     * GET /analytics/posts-per-bucket?bucket=...&since=...&until=...
+     * bucket is the width of a bucket in seconds and defaults to 3600; since and until optionally limit the range.
+     * If a parameter is not a number, bucket is not positive, or the range holds too many buckets, it returns a
+     * 400 Bad Request response.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void postsPerBucketHandler(Context ctx) {
+        try {
+            long bucket = Long.parseLong(Objects.requireNonNullElse(ctx.queryParam("bucket"), "3600"));
+            long[] timeRange = timeRange(ctx);
+            if (bucket < 1) {
+                ctx.status(400);
+                return;
+            }
+            ctx.json(timeRange == null
+                    ? MessageService.getPostsPerBucket(bucket, Long.MIN_VALUE, Long.MAX_VALUE)
+                    : MessageService.getPostsPerBucket(bucket, timeRange[0], timeRange[1]));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException too
+            ctx.status(400);
+        }
+    }
+
+    /**
+     * This method reports how many messages have text lengths in each bin: GET /analytics/length-histogram?bin=...
+     * bin is the number of lengths each bin covers and defaults to 16. If it is not a positive number, it returns a
+     * 400 Bad Request response.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void lengthHistogramHandler(Context ctx) {
+        int bin;
+        try {
+            bin = Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("bin"), "16"));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (bin < 1) {
+            ctx.status(400);
+            return;
+        }
+
+        ctx.json(MessageService.getLengthHistogram(bin));
+    }
+
+
+    /**
+     * This method returns the terms used in the most messages posted recently: GET /trending?minutes=...&limit=...
+     * minutes defaults to 15 and may be at most the configured window; limit defaults to 10 and is at most 100.
+     * Counts are estimates that are never too low. If a parameter is not a number or out of range, it returns a
+     * 400 Bad Request response.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void trendingHandler(Context ctx) {
+        int minutes;
+        int limit;
+        try {
+            minutes = Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("minutes"), "15"));
+            limit = Math.min(100, Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("limit"), "10")));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (minutes < 1 || minutes > MessageService.getTrendingWindowMinutes() || limit < 1) {
+            ctx.status(400);
+            return;
+        }
+
+        ctx.json(MessageService.getTrendingTerms(minutes, limit));
+    }
+
+
+    /**
+     * This method lists the messages read most often recently: GET /admin/hot-messages?limit=...
+     * limit defaults to 10. Each entry has the message_id and its estimated recent reads. If limit is not a positive
+     * number, it returns a 400 Bad Request response.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void hotMessagesHandler(Context ctx) {
+        int limit;
+        try {
+            limit = Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("limit"), "10"));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (limit < 1) {
+            ctx.status(400);
+            return;
+        }
+
+        ctx.json(MessageService.getHotMessages(limit));
+    }
+
+
+    /**
+     * This method streams message changes as Server-Sent Events: GET /messages/stream?account_id=...
+     * Each inserted, updated or deleted message is sent as an event named insert, update or delete whose data is the
+     * MessageEvent as JSON and whose id is its seq; a client that reconnects with Last-Event-ID (or after=seq) is sent
+     * the events it missed. A client that fell too far behind is sent a resync event and should reload the messages;
+     * one that stops reading is disconnected after service.feed.send-timeout-ms.
+     * With account_id only changes to that account's messages are sent. If account_id or after is not a number, the
+     * stream is closed at once.
+     *
+     * @param client The SSE connection to the client.
+     */
+    private void messageStreamHandler(SseClient client) {
+        int accountId;
+        long afterSeq;
+        try {
+            accountId = Integer.parseInt(Objects.requireNonNullElse(client.ctx.queryParam("account_id"), "0"));
+            afterSeq = Long.parseLong(Objects.requireNonNullElse(client.ctx.header("Last-Event-ID"),
+                    Objects.requireNonNullElse(client.ctx.queryParam("after"), "-1")));
+        } catch (NumberFormatException e) {
+            client.close();
+            return;
+        }
+
+        // Keep the connection open after this method returns, and push events to it until the client goes away.
+        client.keepAlive();
+        ObjectMapper objectMapper = new ObjectMapper();
+        MessageFeed.Subscription subscription = MessageService.subscribeToFeed(new MessageFeed.Subscriber() {
+            @Override
+            public void send(MessageEvent event) throws JsonProcessingException {
+                client.sendEvent(event.type, objectMapper.writeValueAsString(event), String.valueOf(event.seq));
+            }
+
+            @Override
+            public void close() {
+                // Fails a write blocked on a client that stopped reading, then ends the stream
+                Request.getBaseRequest(client.ctx.req()).getHttpChannel().abort(new TimeoutException("dropped from the feed"));
+                client.close();
+            }
+        }, accountId, afterSeq);
+        client.onClose(subscription::cancel);
+    }
+
+    /**
+     * This method streams message changes over a WebSocket at /messages/ws?account_id=...&after=...
+     * Every change is sent as a text frame holding the MessageEvent as JSON, the same events as GET /messages/stream.
+     * If account_id or after is not a number, the socket is closed at once.
+     *
+     * @param ctx The Javalin WsConnectContext of the new socket.
+     */
+    private void messageSocketConnectHandler(WsConnectContext ctx) {
+        int accountId;
+        long afterSeq;
+        try {
+            accountId = Integer.parseInt(Objects.requireNonNullElse(ctx.queryParam("account_id"), "0"));
+            afterSeq = Long.parseLong(Objects.requireNonNullElse(ctx.queryParam("after"), "-1"));
+        } catch (NumberFormatException e) {
+            ctx.closeSession(StatusCode.BAD_DATA, "account_id and after must be numbers");
+            return;
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        socketSubscriptions.put(ctx.getSessionId(), MessageService.subscribeToFeed(new MessageFeed.Subscriber() {
+            @Override
+            public void send(MessageEvent event) throws JsonProcessingException {
+                ctx.send(objectMapper.writeValueAsString(event));
+            }
+
+            @Override
+            public void close() {
+                // A close frame would queue behind a blocked write, so the connection is cut at once
+                ctx.session.disconnect();
+            }
+        }, accountId, afterSeq));
     }
 
 
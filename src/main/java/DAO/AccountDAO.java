@@ -1,6 +1,11 @@
 package DAO;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 import Model.Account;
@@ -89,4 +94,95 @@ public class AccountDAO {
             return null;
         }
     }
+
+    /**
+     * Retrieves an Account object from the database by its account_id.
+     *
+     * @param accountId the id of the account to retrieve
+     * @return the Account with that id, or null if no account is found
+     */
+    public static Account getAccountById(int accountId) {
+
+        // Get a connection to the database using the ConnectionUtil class
+        Connection conn = ConnectionUtil.getConnection();
+        try {
+            // Construct the SQL statement to retrieve the account from the database
+            String sql = "SELECT * FROM account WHERE account_id = ?";
+
+            // Create a PreparedStatement object with the SQL statement and set the account_id parameter
+            PreparedStatement preparedStatement = conn.prepareStatement(sql);
+            preparedStatement.setInt(1, accountId);
+
+            // Execute the prepared statement and return the account if there is one
+            ResultSet rs = preparedStatement.executeQuery();
+            if (rs.next()) {
+                return new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password"));
+            }
+
+            // If no account is found, return null
+            return null;
+        } catch (SQLException e) {
+            // Handle any SQL exceptions that may occur
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves every account in the database.
+     *
+     * @return a List of all accounts, in account_id order
+     */
+    public static List<Account> getAllAccounts() {
+
+        // Get a connection to the database using the ConnectionUtil class
+        Connection conn = ConnectionUtil.getConnection();
+        List<Account> accounts = new ArrayList<>();
+        try {
+            // Read every row of the account table
+            PreparedStatement preparedStatement = conn.prepareStatement("SELECT * FROM account ORDER BY account_id");
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                accounts.add(new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password")));
+            }
+        } catch (SQLException e) {
+            // Handle any SQL exceptions that may occur
+            System.out.println(e.getMessage());
+        }
+        return accounts;
+    }
+
+    /**
+     * The longest array H2 accepts as a parameter.
+     */
+    private static final int MAX_ARRAY_LENGTH = 65536;
+
+    /**
+     * Retrieves the usernames of many accounts with one query: the ids are passed as a single array parameter and
+     * joined against the primary key, as MessageDAO.getMessagesByIds does.
+     *
+     * @param accountIds the ids of the accounts
+     * @return account_id -> username for the accounts that exist
+     */
+    public static Map<Integer, String> getUsernamesByIds(int[] accountIds) {
+        Map<Integer, String> usernames = new HashMap<>();
+        Integer[] ids = Arrays.stream(accountIds).boxed().toArray(Integer[]::new);
+        Connection conn = ConnectionUtil.getConnection();
+        // H2 arrays hold at most MAX_ARRAY_LENGTH elements, so very long lists take several queries
+        for (int from = 0; from < ids.length; from += MAX_ARRAY_LENGTH) {
+            try {
+                String sql = "SELECT a.account_id, a.username FROM TABLE(id INT = ?) ids JOIN account a ON a.account_id = ids.id";
+                PreparedStatement preparedStatement = conn.prepareStatement(sql);
+                preparedStatement.setObject(1, Arrays.copyOfRange(ids, from, Math.min(ids.length, from + MAX_ARRAY_LENGTH)));
+                ResultSet rs = preparedStatement.executeQuery();
+                while (rs.next()) {
+                    usernames.put(rs.getInt("account_id"), rs.getString("username"));
+                }
+            } catch (SQLException e) {
+                // Handle any SQL exceptions that may occur
+                System.out.println(e.getMessage());
+            }
+        }
+        return usernames;
+    }
 }
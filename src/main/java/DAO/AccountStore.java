@@ -0,0 +1,61 @@
+package DAO;
+
+import Model.Account;
+import Util.AppConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An AccountStore stores accounts for the service layer. Accounts live in H2 through AccountDAO, except with
+ * storage.engine=memory, where MemoryStore keeps them together with the messages.
+ */
+public interface AccountStore {
+
+    /**
+     * @param account the account to register, its account_id is ignored
+     * @return the registered account with its new account_id, or null if it could not be registered
+     */
+    Account registerAccount(Account account);
+
+    /**
+     * @param username the username of the account
+     * @param password the password of the account
+     * @return the matching account, or null if there is none
+     */
+    Account getAccountByUserNameAndPassword(String username, String password);
+
+    /**
+     * @param accountId the id of the account
+     * @return the account, or null if there is none with that id
+     */
+    Account getAccountById(int accountId);
+
+    /**
+     * Reads the usernames of many accounts at once. Engines where a lookup by id is cheap use this default; others
+     * fetch them in one query.
+     *
+     * @param accountIds the ids of the accounts
+     * @return account_id -> username for the accounts that exist
+     */
+    default Map<Integer, String> getUsernames(int[] accountIds) {
+        Map<Integer, String> usernames = new HashMap<>();
+        for (int accountId : accountIds) {
+            Account account = getAccountById(accountId);
+            if (account != null) {
+                usernames.put(accountId, account.getUsername());
+            }
+        }
+        return usernames;
+    }
+
+    /**
+     * @return the account store for the storage.engine setting
+     */
+    static AccountStore fromConfig() {
+        if (AppConfig.getString("storage.engine", "jdbc").equals("memory")) {
+            return MemoryStore.instance();
+        }
+        return new JdbcAccountStore();
+    }
+}
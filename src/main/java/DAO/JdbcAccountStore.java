@@ -0,0 +1,31 @@
+package DAO;
+
+import Model.Account;
+
+import java.util.Map;
+
+/**
+ * The AccountStore backed by the account table in H2, through AccountDAO.
+ */
+public class JdbcAccountStore implements AccountStore {
+
+    @Override
+    public Account registerAccount(Account account) {
+        return AccountDAO.registerAccount(account);
+    }
+
+    @Override
+    public Account getAccountByUserNameAndPassword(String username, String password) {
+        return AccountDAO.getAccountByUserNameAndPassword(username, password);
+    }
+
+    @Override
+    public Account getAccountById(int accountId) {
+        return AccountDAO.getAccountById(accountId);
+    }
+
+    @Override
+    public Map<Integer, String> getUsernames(int[] accountIds) {
+        return AccountDAO.getUsernamesByIds(accountIds);
+    }
+}
@@ -0,0 +1,77 @@
+package DAO;
+
+import Model.Message;
+import Model.MessageField;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The MessageStore backed by the message table in H2 (and its shards), through MessageDAO.
+ */
+public class JdbcMessageStore implements MessageStore {
+
+    private final MessageDAO messageDAO = new MessageDAO();
+
+    @Override
+    public Message insertMessage(Message message) {
+        return MessageDAO.insertMessage(message);
+    }
+
+    @Override
+    public boolean deleteMessage(int messageId) {
+        return MessageDAO.deleteMessage(messageId);
+    }
+
+    @Override
+    public Message getMessageById(int messageId) throws SQLException {
+        return MessageDAO.getMessageById(messageId);
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return messageDAO.getAllMessages();
+    }
+
+    @Override
+    public boolean updateMessageText(int messageId, String newText) {
+        return messageDAO.updateMessageText(messageId, newText);
+    }
+
+    @Override
+    public List<Message> getMessagesForUser(int accountId) throws SQLException {
+        return messageDAO.retriveAllMessagesForUser(accountId);
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(int[] messageIds) {
+        return MessageDAO.getMessagesByIds(messageIds);
+    }
+
+    @Override
+    public List<Message> getMessagesPostedBetween(long since, long until, int fromId, int toId) {
+        return MessageDAO.getMessagesPostedBetween(since, until, fromId, toId);
+    }
+
+    @Override
+    public List<Message> getAllMessages(Set<MessageField> fields) {
+        return messageDAO.getAllMessages(fields);
+    }
+
+    @Override
+    public List<Message> getMessagesByIds(int[] messageIds, Set<MessageField> fields) {
+        return MessageDAO.getMessagesByIds(messageIds, fields);
+    }
+
+    @Override
+    public List<Message> getMessagesPostedBetween(long since, long until, int fromId, int toId, Set<MessageField> fields) {
+        return MessageDAO.getMessagesPostedBetween(since, until, fromId, toId, fields);
+    }
+
+    @Override
+    public void forEachMessage(Consumer<Message> action) {
+        MessageDAO.forEachMessage(action);
+    }
+}
@@ -0,0 +1,518 @@
+package DAO;
+
+import Model.Message;
+import Model.MessageField;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A MessageStore that keeps messages in an append-only log instead of the H2 message table. Accounts stay in H2.
+ *
+ * The log is a series of fixed size segment files (segment-000001.log, ...) that are memory mapped. Every insert,
+ * update and delete appends one record to the newest segment, so writes are sequential. An in-memory index maps each
+ * message_id to the position of its newest record, so a read is one index lookup and one read from the mapped file.
+ *
+ * Record layout (big endian):
+ *   int length     total bytes of the record, written last so a half written record is never read
+ *   byte type      PUT or TOMBSTONE
+ *   int message_id
+ *   PUT:       int posted_by, long time_posted_epoch, short text bytes, UTF-8 text
+ *   TOMBSTONE: int segment that held the newest PUT of the deleted message
+ *
+ * An update appends a new PUT and a delete appends a TOMBSTONE, leaving the old record as garbage. A background thread
+ * compacts old segments whose share of live bytes fell below storage.log.compaction-threshold: it re-appends their
+ * live records to the newest segment and deletes the file. A tombstone is kept while any segment older than its own
+ * still exists, since any of them may hold an earlier PUT of the message (from before an update) that replay would
+ * otherwise bring back.
+ *
+ * On startup the segments are replayed in order to rebuild the index. If the log is empty, the messages already in
+ * the H2 message table are copied into it.
+ *
+ * Settings: storage.log.dir, storage.log.segment-bytes, storage.log.fsync (force every write to disk),
+ * storage.log.compaction-interval-ms and storage.log.compaction-threshold.
+ */
+public class LogMessageStore implements MessageStore {
+
+    private static final byte PUT = 1;
+    private static final byte TOMBSTONE = 2;
+    /**
+     * Bytes of length, type and message_id at the start of every record.
+     */
+    private static final int HEADER_BYTES = 4 + 1 + 4;
+    private static final int PUT_FIXED_BYTES = HEADER_BYTES + 4 + 8 + 2;
+    private static final int TOMBSTONE_BYTES = HEADER_BYTES + 4;
+    /**
+     * The longest message_text, as in the H2 schema. Its UTF-8 bytes always fit the short length of a PUT record.
+     */
+    private static final int MAX_TEXT = 255;
+    /**
+     * Messages read under one hold of the read lock by forEachMessage.
+     */
+    private static final int PAGE_MESSAGES = 10000;
+
+    /**
+     * One memory mapped segment file.
+     */
+    private static class Segment {
+        final int number;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition = 0;
+        /**
+         * Bytes of records that are still needed, compared with writePosition to decide when to compact.
+         */
+        long liveBytes = 0;
+
+        Segment(int number, Path path, int size) throws IOException {
+            this.number = number;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final double compactionThreshold;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+    /**
+     * message_id -> (segment number << 32 | offset) of the newest record of that message; 0 means no such message.
+     */
+    private long[] index = new long[1024];
+    /**
+     * The highest message_id ever used, so ids are never reused.
+     */
+    private int maxId = 0;
+
+    /**
+     * Opens (or creates) the log in a directory and replays it.
+     *
+     * @param directory    where the segment files live
+     * @param segmentBytes the size of each segment file
+     * @param fsync        true to force every write to disk before returning
+     * @param compactionThreshold compact a segment when less than this share of its bytes is live
+     */
+    public LogMessageStore(Path directory, int segmentBytes, boolean fsync, double compactionThreshold) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.compactionThreshold = compactionThreshold;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the message log in " + directory, e);
+        }
+    }
+
+    /**
+     * @return a log store configured from the storage.log.* settings, with compaction running in the background
+     */
+    public static LogMessageStore fromConfig() {
+        LogMessageStore store = new LogMessageStore(
+                Path.of(AppConfig.getString("storage.log.dir", "./h2/messagelog")),
+                AppConfig.getInt("storage.log.segment-bytes", 64 * 1024 * 1024),
+                AppConfig.getBoolean("storage.log.fsync", false),
+                Double.parseDouble(AppConfig.getString("storage.log.compaction-threshold", "0.5")));
+        long interval = AppConfig.getLong("storage.log.compaction-interval-ms", 10000);
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LogMessageStoreCompactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(store::compact, interval, interval, TimeUnit.MILLISECONDS);
+        ConnectionUtil.addResetListener(store::reset);
+        return store;
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        // Accounts live in H2, so check the account the same way the foreign key of the message table would
+        if (message.getMessage_text() == null || message.getMessage_text().length() > MAX_TEXT
+                || AccountDAO.getAccountById(message.getPosted_by()) == null) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            int messageId = maxId + 1;
+            Message inserted = new Message(messageId, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+            return appendPut(inserted) ? inserted : null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteMessage(int messageId) {
+        lock.writeLock().lock();
+        try {
+            long position = positionOf(messageId);
+            if (position == 0) {
+                return false;
+            }
+            Segment old = segments.get(segmentOf(position));
+            old.liveBytes -= recordLength(position);
+            ByteBuffer record = ByteBuffer.allocate(TOMBSTONE_BYTES);
+            record.putInt(TOMBSTONE_BYTES).put(TOMBSTONE).putInt(messageId).putInt(old.number);
+            long tombstone = append(record.array());
+            segments.get(segmentOf(tombstone)).liveBytes += TOMBSTONE_BYTES;
+            index[messageId] = 0;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message getMessageById(int messageId) {
+        lock.readLock().lock();
+        try {
+            long position = positionOf(messageId);
+            return position == 0 ? null : read(position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return scan(0, true);
+    }
+
+    /**
+     * Skips decoding message_text when it is not asked for; the other fields are fixed size and read anyway.
+     */
+    @Override
+    public List<Message> getAllMessages(Set<MessageField> fields) {
+        return scan(0, fields.contains(MessageField.MESSAGE_TEXT));
+    }
+
+    @Override
+    public boolean updateMessageText(int messageId, String newText) {
+        if (newText == null || newText.length() > MAX_TEXT) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            long position = positionOf(messageId);
+            if (position == 0) {
+                return false;
+            }
+            Message existing = read(position);
+            int oldLength = recordLength(position);
+            if (!appendPut(new Message(messageId, existing.getPosted_by(), newText, existing.getTime_posted_epoch()))) {
+                return false;
+            }
+            segments.get(segmentOf(position)).liveBytes -= oldLength;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesForUser(int accountId) {
+        return scan(accountId, true);
+    }
+
+    /**
+     * Reads PAGE_MESSAGES messages at a time under the read lock and passes them to the action after releasing it, so
+     * neither every message nor the lock is held while the action runs.
+     */
+    @Override
+    public void forEachMessage(Consumer<Message> action) {
+        int next = 1;
+        boolean done = false;
+        while (!done) {
+            List<Message> page = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (; next <= maxId && page.size() < PAGE_MESSAGES; next++) {
+                    if (index[next] != 0) {
+                        page.add(read(index[next]));
+                    }
+                }
+                done = next > maxId;
+            } finally {
+                lock.readLock().unlock();
+            }
+            page.forEach(action);
+        }
+    }
+
+    /**
+     * Reads every live message in message_id order, or only those of one account.
+     *
+     * @param accountId the posted_by to keep, or 0 for all messages
+     * @param withText  false to leave message_text null
+     */
+    private List<Message> scan(int accountId, boolean withText) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            for (int messageId = 1; messageId <= maxId; messageId++) {
+                long position = index[messageId];
+                if (position == 0) {
+                    continue;
+                }
+                // Check posted_by straight from the mapped file before building a Message
+                if (accountId == 0 || segments.get(segmentOf(position)).buffer.getInt(offsetOf(position) + HEADER_BYTES) == accountId) {
+                    messages.add(read(position, withText));
+                }
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a PUT record for a message and points the index at it. The caller holds the write lock.
+     *
+     * @return false, writing nothing, if the record is larger than a whole segment
+     */
+    private boolean appendPut(Message message) {
+        byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        int length = PUT_FIXED_BYTES + text.length;
+        if (length > segmentBytes) {
+            return false;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).put(PUT).putInt(message.getMessage_id())
+                .putInt(message.getPosted_by()).putLong(message.getTime_posted_epoch())
+                .putShort((short) text.length).put(text);
+        long position = append(record.array());
+        segments.get(segmentOf(position)).liveBytes += length;
+        setPosition(message.getMessage_id(), position);
+        return true;
+    }
+
+    /**
+     * Writes a record at the end of the active segment, starting a new segment when it does not fit. The length at the
+     * start of the record is written last. The caller holds the write lock.
+     *
+     * @return the position of the record
+     */
+    private long append(byte[] record) {
+        try {
+            if (active.writePosition + record.length > segmentBytes) {
+                active = openSegment(active.number + 1);
+            }
+            int offset = active.writePosition;
+            ByteBuffer target = active.buffer.duplicate();
+            target.position(offset + 4);
+            target.put(record, 4, record.length - 4);
+            active.buffer.putInt(offset, record.length);
+            if (fsync) {
+                active.buffer.force();
+            }
+            active.writePosition += record.length;
+            return ((long) active.number << 32) | offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Message read(long position) {
+        return read(position, true);
+    }
+
+    private Message read(long position, boolean withText) {
+        ByteBuffer buffer = segments.get(segmentOf(position)).buffer;
+        int offset = offsetOf(position);
+        int messageId = buffer.getInt(offset + 5);
+        int postedBy = buffer.getInt(offset + HEADER_BYTES);
+        long epoch = buffer.getLong(offset + HEADER_BYTES + 4);
+        if (!withText) {
+            return new Message(messageId, postedBy, null, epoch);
+        }
+        int textLength = buffer.getShort(offset + HEADER_BYTES + 12) & 0xFFFF;
+        byte[] text = new byte[textLength];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset + PUT_FIXED_BYTES);
+        source.get(text);
+        return new Message(messageId, postedBy, new String(text, StandardCharsets.UTF_8), epoch);
+    }
+
+    private int recordLength(long position) {
+        return segments.get(segmentOf(position)).buffer.getInt(offsetOf(position));
+    }
+
+    private long positionOf(int messageId) {
+        return messageId > 0 && messageId < index.length ? index[messageId] : 0;
+    }
+
+    private void setPosition(int messageId, long position) {
+        if (messageId >= index.length) {
+            index = Arrays.copyOf(index, Math.max(index.length * 2, messageId + 1));
+        }
+        index[messageId] = position;
+        maxId = Math.max(maxId, messageId);
+    }
+
+    private static int segmentOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    private Segment openSegment(int number) throws IOException {
+        Segment segment = new Segment(number, directory.resolve(String.format("segment-%06d.log", number)), segmentBytes);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    /**
+     * Maps every segment file and replays its records in order to rebuild the index. Replay stops at the first record
+     * whose length was never written. An empty log is filled with the messages already in H2.
+     */
+    private void recover() throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Integer.parseInt(name.substring(8, name.length() - 4)));
+            }
+        }
+        numbers.sort(null);
+        for (int number : numbers) {
+            Segment segment = openSegment(number);
+            int offset = 0;
+            while (offset + HEADER_BYTES <= segmentBytes) {
+                int length = segment.buffer.getInt(offset);
+                if (length == 0) {
+                    break;
+                }
+                long position = ((long) number << 32) | offset;
+                int messageId = segment.buffer.getInt(offset + 5);
+                long previous = positionOf(messageId);
+                if (previous != 0) {
+                    segments.get(segmentOf(previous)).liveBytes -= recordLength(previous);
+                }
+                if (segment.buffer.get(offset + 4) == PUT) {
+                    setPosition(messageId, position);
+                } else {
+                    setPosition(messageId, 0);
+                }
+                segment.liveBytes += length;
+                offset += length;
+            }
+            segment.writePosition = offset;
+        }
+        if (segments.isEmpty()) {
+            active = openSegment(1);
+            importFromDatabase();
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Copies the messages of the H2 message table into the log, keeping their ids.
+     */
+    private void importFromDatabase() {
+        for (Message message : new MessageDAO().getAllMessages()) {
+            appendPut(message);
+        }
+    }
+
+    /**
+     * Compacts every segment, except the one being written, whose share of live bytes is below the threshold.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment != active && segment.liveBytes < segment.writePosition * compactionThreshold) {
+                    compact(segment);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Message log compaction failed: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Re-appends the records of one segment that are still needed and deletes the segment file. A PUT is needed if
+     * the index still points at it. A TOMBSTONE is needed while a segment older than this one still exists, or if it
+     * records the highest id ever used.
+     */
+    private void compact(Segment segment) throws IOException {
+        int offset = 0;
+        while (offset < segment.writePosition) {
+            int length = segment.buffer.getInt(offset);
+            int messageId = segment.buffer.getInt(offset + 5);
+            long position = ((long) segment.number << 32) | offset;
+            if (segment.buffer.get(offset + 4) == PUT) {
+                if (positionOf(messageId) == position) {
+                    appendPut(read(position));
+                }
+            } else {
+                if (segments.firstKey() < segment.number || messageId == maxId) {
+                    byte[] record = new byte[length];
+                    ByteBuffer source = segment.buffer.duplicate();
+                    source.position(offset);
+                    source.get(record);
+                    long moved = append(record);
+                    segments.get(segmentOf(moved)).liveBytes += length;
+                }
+            }
+            offset += length;
+        }
+        segments.remove(segment.number);
+        segment.channel.close();
+        Files.deleteIfExists(segment.path);
+    }
+
+    /**
+     * Deletes the whole log and copies the freshly reset H2 message table into it again.
+     */
+    private void reset() {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Integer, Segment> entry : segments.entrySet()) {
+                entry.getValue().channel.close();
+                Files.deleteIfExists(entry.getValue().path);
+            }
+            segments.clear();
+            index = new long[1024];
+            maxId = 0;
+            active = openSegment(1);
+            importFromDatabase();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package DAO;
+
+import Model.Account;
+import Model.Message;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.IntObjectMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps every account and message in memory, for deployments where one API process owns the data and latency
+ * matters more than sharing the database. Selected with storage.engine=memory, for both AccountService and
+ * MessageService.
+ *
+ * Every change is applied in memory and appended to a write-ahead log before the call returns. Each log record is
+ * [int length][record bytes][int CRC32], so a record torn by a crash is detected and ignored. How often the log is
+ * forced to disk is set by storage.memory.fsync:
+ * - always: before every call returns; nothing acknowledged is ever lost
+ * - interval: every storage.memory.fsync-interval-ms; a crash of the machine may lose that much
+ * - never: left to the operating system
+ *
+ * Every storage.memory.snapshot-interval-ms the store switches to a new log file (wal-N.log) and writes a snapshot
+ * (snapshot-N.bin) of the state before it, after which older logs and snapshots are deleted. Recovery loads the
+ * newest snapshot and replays the logs from N on, so its time is bounded by the snapshot interval. When there is
+ * nothing to recover, the accounts and messages in H2 are imported.
+ *
+ * Settings: storage.memory.dir, storage.memory.fsync, storage.memory.fsync-interval-ms and
+ * storage.memory.snapshot-interval-ms.
+ */
+public class MemoryStore implements MessageStore, AccountStore {
+
+    private static final byte ACCOUNT = 1;
+    private static final byte MESSAGE_PUT = 2;
+    private static final byte MESSAGE_DELETE = 3;
+    /**
+     * The longest username, password and message_text, as in the H2 schema.
+     */
+    private static final int MAX_TEXT = 255;
+    /**
+     * No valid log record is longer than this, so a longer length can only come from a torn write.
+     */
+    private static final int MAX_RECORD = 64 * 1024;
+
+    private static MemoryStore instance = null;
+
+    private final Path directory;
+    private final String fsync;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Held while a snapshot or a reset is in progress, so the two never overlap.
+     */
+    private final Object snapshotLock = new Object();
+
+    private final IntObjectMap<Account> accounts = new IntObjectMap<>();
+    private final Map<String, Account> accountsByUsername = new HashMap<>();
+    private final IntObjectMap<Message> messages = new IntObjectMap<>();
+    private int lastAccountId = 0;
+    private int lastMessageId = 0;
+
+    private int walNumber;
+    private FileOutputStream walFile;
+    private DataOutputStream wal;
+
+    /**
+     * Recovers the store from a directory, or imports H2 into it if the directory holds no data.
+     *
+     * @param directory where the logs and snapshots are kept
+     * @param fsync     always, interval or never
+     */
+    public MemoryStore(Path directory, String fsync) {
+        this.directory = directory;
+        this.fsync = fsync;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not recover the memory store from " + directory, e);
+        }
+    }
+
+    /**
+     * Both MessageStore.fromConfig() and AccountStore.fromConfig() use the same store, configured from the
+     * storage.memory.* settings, with the fsync and snapshot threads running in the background.
+     *
+     * @return the store of this process
+     */
+    public static synchronized MemoryStore instance() {
+        if (instance == null) {
+            MemoryStore store = new MemoryStore(
+                    Path.of(AppConfig.getString("storage.memory.dir", "./h2/memorystore")),
+                    AppConfig.getString("storage.memory.fsync", "interval"));
+            ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MemoryStore");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (store.fsync.equals("interval")) {
+                long interval = AppConfig.getLong("storage.memory.fsync-interval-ms", 1000);
+                background.scheduleWithFixedDelay(store::sync, interval, interval, TimeUnit.MILLISECONDS);
+            }
+            long snapshotInterval = AppConfig.getLong("storage.memory.snapshot-interval-ms", 60000);
+            background.scheduleWithFixedDelay(store::snapshot, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+            ConnectionUtil.addResetListener(store::reset);
+            instance = store;
+        }
+        return instance;
+    }
+
+    @Override
+    public Account registerAccount(Account account) {
+        if (account.getUsername() == null || account.getPassword() == null
+                || account.getUsername().length() > MAX_TEXT || account.getPassword().length() > MAX_TEXT) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            // The username is unique, as in the account table
+            if (accountsByUsername.containsKey(account.getUsername())) {
+                return null;
+            }
+            Account registered = new Account(lastAccountId + 1, account.getUsername(), account.getPassword());
+            log(ACCOUNT, out -> {
+                out.writeInt(registered.getAccount_id());
+                out.writeUTF(registered.getUsername());
+                out.writeUTF(registered.getPassword());
+            });
+            putAccount(registered);
+            return registered;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Account getAccountByUserNameAndPassword(String username, String password) {
+        lock.readLock().lock();
+        try {
+            Account account = accountsByUsername.get(username);
+            return account != null && account.getPassword().equals(password) ? account : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Account getAccountById(int accountId) {
+        lock.readLock().lock();
+        try {
+            return accounts.get(accountId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Message insertMessage(Message message) {
+        if (message.getMessage_text() == null || message.getMessage_text().length() > MAX_TEXT) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            // posted_by must be an account, as the foreign key of the message table requires
+            if (accounts.get(message.getPosted_by()) == null) {
+                return null;
+            }
+            Message inserted = new Message(lastMessageId + 1, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+            logMessage(inserted);
+            putMessage(inserted);
+            return inserted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteMessage(int messageId) {
+        lock.writeLock().lock();
+        try {
+            if (messages.get(messageId) == null) {
+                return false;
+            }
+            log(MESSAGE_DELETE, out -> out.writeInt(messageId));
+            messages.remove(messageId);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Message getMessageById(int messageId) {
+        lock.readLock().lock();
+        try {
+            return messages.get(messageId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return listMessages(0);
+    }
+
+    @Override
+    public boolean updateMessageText(int messageId, String newText) {
+        if (newText == null || newText.length() > MAX_TEXT) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            Message existing = messages.get(messageId);
+            if (existing == null) {
+                return false;
+            }
+            // Stored messages are never changed in place, since callers may still hold them
+            Message updated = new Message(messageId, existing.getPosted_by(), newText, existing.getTime_posted_epoch());
+            logMessage(updated);
+            putMessage(updated);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesForUser(int accountId) {
+        return listMessages(accountId);
+    }
+
+    /**
+     * @param accountId the posted_by to keep, or 0 for all messages
+     * @return the messages in message_id order
+     */
+    private List<Message> listMessages(int accountId) {
+        List<Message> list = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            messages.forEachValue(message -> {
+                if (accountId == 0 || message.getPosted_by() == accountId) {
+                    list.add(message);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        list.sort(Comparator.comparingInt(Message::getMessage_id));
+        return list;
+    }
+
+    private void putAccount(Account account) {
+        accounts.put(account.getAccount_id(), account);
+        accountsByUsername.put(account.getUsername(), account);
+        lastAccountId = Math.max(lastAccountId, account.getAccount_id());
+    }
+
+    private void putMessage(Message message) {
+        messages.put(message.getMessage_id(), message);
+        lastMessageId = Math.max(lastMessageId, message.getMessage_id());
+    }
+
+    private void logMessage(Message message) {
+        log(MESSAGE_PUT, out -> {
+            out.writeInt(message.getMessage_id());
+            out.writeInt(message.getPosted_by());
+            out.writeLong(message.getTime_posted_epoch());
+            out.writeUTF(message.getMessage_text());
+        });
+    }
+
+    /**
+     * Writes the body of a log record.
+     */
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Appends one record to the write-ahead log and hands it to the operating system, forcing it to disk as well when
+     * storage.memory.fsync is always. The caller holds the write lock.
+     */
+    private void log(byte type, RecordWriter body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(type);
+            body.write(record);
+            byte[] array = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(array);
+            wal.writeInt(array.length);
+            wal.write(array);
+            wal.writeInt((int) crc.getValue());
+            wal.flush();
+            if (fsync.equals("always")) {
+                walFile.getChannel().force(false);
+            }
+        } catch (IOException e) {
+            // The change could not be made durable, so it must not be applied either
+            throw new UncheckedIOException("Could not write to the write-ahead log", e);
+        }
+    }
+
+    /**
+     * Forces the log to disk; run every storage.memory.fsync-interval-ms when storage.memory.fsync is interval.
+     */
+    private void sync() {
+        lock.writeLock().lock();
+        try {
+            walFile.getChannel().force(false);
+        } catch (IOException e) {
+            System.out.println("Could not sync the write-ahead log: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the newest snapshot, replays the logs written after it and starts a new log. With no files at all, the
+     * accounts and messages in H2 are imported instead.
+     */
+    private void recover() throws IOException {
+        TreeMap<Integer, Path> snapshots = numberedFiles("snapshot-", ".bin");
+        TreeMap<Integer, Path> logs = numberedFiles("wal-", ".log");
+        int from = 0;
+        if (!snapshots.isEmpty()) {
+            from = snapshots.lastKey();
+            loadSnapshot(snapshots.lastEntry().getValue());
+        }
+        for (Map.Entry<Integer, Path> log : logs.tailMap(from).entrySet()) {
+            replay(log.getValue());
+        }
+        // Never append after a possibly torn record: always continue in a new file
+        int last = Math.max(from, logs.isEmpty() ? 0 : logs.lastKey());
+        openLog(last + 1);
+        if (snapshots.isEmpty() && logs.isEmpty()) {
+            importFromDatabase();
+        }
+    }
+
+    private void loadSnapshot(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            lastAccountId = in.readInt();
+            lastMessageId = in.readInt();
+            int accountCount = in.readInt();
+            for (int i = 0; i < accountCount; i++) {
+                putAccount(new Account(in.readInt(), in.readUTF(), in.readUTF()));
+            }
+            int messageCount = in.readInt();
+            for (int i = 0; i < messageCount; i++) {
+                int messageId = in.readInt();
+                int postedBy = in.readInt();
+                long epoch = in.readLong();
+                putMessage(new Message(messageId, postedBy, in.readUTF(), epoch));
+            }
+        }
+    }
+
+    /**
+     * Applies every intact record of a log file, stopping at the end of the file or at the first torn record.
+     */
+    private void replay(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte[] array;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD) {
+                        System.out.println("Ignoring a torn record at the end of " + file);
+                        return;
+                    }
+                    array = new byte[length];
+                    in.readFully(array);
+                    CRC32 crc = new CRC32();
+                    crc.update(array);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        System.out.println("Ignoring a torn record at the end of " + file);
+                        return;
+                    }
+                } catch (EOFException e) {
+                    return;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(array)));
+            }
+        }
+    }
+
+    private void apply(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        if (type == ACCOUNT) {
+            putAccount(new Account(record.readInt(), record.readUTF(), record.readUTF()));
+        } else if (type == MESSAGE_PUT) {
+            int messageId = record.readInt();
+            int postedBy = record.readInt();
+            long epoch = record.readLong();
+            putMessage(new Message(messageId, postedBy, record.readUTF(), epoch));
+        } else if (type == MESSAGE_DELETE) {
+            messages.remove(record.readInt());
+        }
+    }
+
+    /**
+     * Copies the account and message tables of H2 into the store, writing them to the log.
+     */
+    private void importFromDatabase() {
+        for (Account account : AccountDAO.getAllAccounts()) {
+            log(ACCOUNT, out -> {
+                out.writeInt(account.getAccount_id());
+                out.writeUTF(account.getUsername());
+                out.writeUTF(account.getPassword());
+            });
+            putAccount(account);
+        }
+        for (Message message : new MessageDAO().getAllMessages()) {
+            logMessage(message);
+            putMessage(message);
+        }
+    }
+
+    private void openLog(int number) throws IOException {
+        walNumber = number;
+        walFile = new FileOutputStream(directory.resolve("wal-" + number + ".log").toFile(), true);
+        wal = new DataOutputStream(new BufferedOutputStream(walFile));
+    }
+
+    /**
+     * Starts a new log and writes a snapshot of everything before it. Only the switch and the copy of the map contents
+     * happen under the write lock; the snapshot is written while requests carry on.
+     */
+    public void snapshot() {
+        synchronized (snapshotLock) {
+            int number;
+            List<Account> accountList = new ArrayList<>();
+            List<Message> messageList = new ArrayList<>();
+            int accountsUpTo;
+            int messagesUpTo;
+            lock.writeLock().lock();
+            try {
+                wal.flush();
+                walFile.getChannel().force(false);
+                walFile.close();
+                number = walNumber + 1;
+                openLog(number);
+                accounts.forEachValue(accountList::add);
+                messages.forEachValue(messageList::add);
+                accountsUpTo = lastAccountId;
+                messagesUpTo = lastMessageId;
+            } catch (IOException e) {
+                System.out.println("Could not start a snapshot: " + e.getMessage());
+                return;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                Path temporary = directory.resolve("snapshot-" + number + ".tmp");
+                try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                    out.writeInt(accountsUpTo);
+                    out.writeInt(messagesUpTo);
+                    out.writeInt(accountList.size());
+                    for (Account account : accountList) {
+                        out.writeInt(account.getAccount_id());
+                        out.writeUTF(account.getUsername());
+                        out.writeUTF(account.getPassword());
+                    }
+                    out.writeInt(messageList.size());
+                    for (Message message : messageList) {
+                        out.writeInt(message.getMessage_id());
+                        out.writeInt(message.getPosted_by());
+                        out.writeLong(message.getTime_posted_epoch());
+                        out.writeUTF(message.getMessage_text());
+                    }
+                    out.flush();
+                    file.getChannel().force(false);
+                }
+                // The snapshot only counts once it is complete, so a crash while writing it leaves the old one in use
+                Files.move(temporary, directory.resolve("snapshot-" + number + ".bin"), StandardCopyOption.ATOMIC_MOVE);
+                for (Path old : numberedFiles("snapshot-", ".bin").headMap(number).values()) {
+                    Files.deleteIfExists(old);
+                }
+                for (Path old : numberedFiles("wal-", ".log").headMap(number).values()) {
+                    Files.deleteIfExists(old);
+                }
+            } catch (IOException e) {
+                System.out.println("Could not write a snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forgets everything, deletes the logs and snapshots and imports the freshly reset H2 tables again.
+     */
+    private void reset() {
+        synchronized (snapshotLock) {
+            lock.writeLock().lock();
+            try {
+                walFile.close();
+                accounts.clear();
+                accountsByUsername.clear();
+                messages.clear();
+                lastAccountId = 0;
+                lastMessageId = 0;
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                    for (Path file : files) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                openLog(1);
+                importFromDatabase();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the files named prefix + number + suffix in the directory, by number
+     */
+    private TreeMap<Integer, Path> numberedFiles(String prefix, String suffix) throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())), file);
+            }
+        }
+        return files;
+    }
+}
@@ -2,13 +2,33 @@ package DAO;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import Model.Message;
+import Model.MessageField;
 import Util.ConnectionUtil;
 
+/**
+ * The MessageDAO reads and writes the message table. Messages may be spread over several databases (shards) by
+ * posted_by; ShardRouter decides which shard each account and each message_id belongs to. With the default of one
+ * shard everything goes to the main database, exactly as before.
+ *
+ * Queries name the columns they read instead of using SELECT *. The listing queries take the MessageFields to read, so
+ * a list of ids and times does not read message_text at all; message_id is always read, since the shards and the
+ * ordering need it. The fields not read are left null or 0 in the returned Messages.
+ */
 public class MessageDAO {
 
+    /**
+     * Rows read by each query of forEachMessage.
+     */
+    private static final int PAGE_ROWS = 10000;
 
     /**
      * Inserts a new message into the database.
@@ -17,8 +37,16 @@ public class MessageDAO {
      * @return the inserted message object with a newly generated message_id
      */
     public static Message insertMessage(Message message) {
+        // Find the shard that stores this account's messages
+        int shard = ShardRouter.shardForAccount(message.getPosted_by());
+
+        // Only the main database has a foreign key to the account table, so the other shards check the account here
+        if (shard != 0 && AccountDAO.getAccountById(message.getPosted_by()) == null) {
+            return null;
+        }
+
         // Get a database connection
-        Connection connection = ConnectionUtil.getConnection();
+        Connection connection = ConnectionUtil.getShardConnection(shard);
         try {
             // The SQL query to insert a new row into the message table
             String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
@@ -37,7 +65,7 @@ public class MessageDAO {
             // Get the generated message ID from the database
             ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
             if (pkeyResultSet.next()) {
-                int generated_message_id = (int) pkeyResultSet.getLong(1);
+                int generated_message_id = ShardRouter.messageId((int) pkeyResultSet.getLong(1), shard);
 
                 // Create a new Message object with the generated message ID and return it
                 return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
@@ -59,14 +87,14 @@ public class MessageDAO {
      * @return true if the message was successfully deleted, false otherwise
      */
     public static boolean deleteMessage(int message_id) {
-        // Establish a database connection
-        Connection connection = ConnectionUtil.getConnection();
+        // Establish a connection to the shard holding the message
+        Connection connection = ConnectionUtil.getShardConnection(ShardRouter.shardForMessage(message_id));
 
         try {
             // Prepare a SQL statement to delete a message with the given ID
             String sql = "DELETE FROM message WHERE message_id = ?";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, message_id);
+            preparedStatement.setInt(1, ShardRouter.localId(message_id));
 
             // Execute the SQL statement and get the number of rows affected
             int rowsAffected = preparedStatement.executeUpdate();
@@ -92,25 +120,20 @@ public class MessageDAO {
      * @throws SQLException if there was an error executing the SQL statement
      */
     public static Message getMessageById(int messageId) throws SQLException {
-        Connection connection = ConnectionUtil.getConnection();
+        int shard = ShardRouter.shardForMessage(messageId);
+        Connection connection = ConnectionUtil.getShardConnection(shard);
         try {
             // Prepare a SQL statement to retrieve the message with the given ID
-            String sql = "SELECT * FROM message WHERE message_id = ?";
+            String sql = "SELECT " + columns("", MessageField.ALL) + " FROM message WHERE message_id = ?";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, messageId);
+            preparedStatement.setInt(1, ShardRouter.localId(messageId));
 
             // Execute the SQL statement and get the results
             ResultSet rs = preparedStatement.executeQuery();
 
             // Loop through the results (there should only be one) and create a Message object
             while (rs.next()) {
-                int message_id = rs.getInt("message_id");
-                int posted_by = rs.getInt("posted_by");
-                String message_text = rs.getString("message_text");
-                long time_posted_epoch = rs.getLong("time_posted_epoch");
-
-                return new Message(message_id, posted_by, message_text, time_posted_epoch);
-
+                return readMessage(rs, shard, MessageField.ALL);
             }
         } catch (SQLException e) {
             // If an SQL exception occurs, print the error message and throw a new SQLException
@@ -123,17 +146,49 @@ public class MessageDAO {
 
 
     /**
-     * Retrieves all messages from the database.
+     * Retrieves all messages from the database. With several shards every shard is queried in parallel and the
+     * results are merged in message_id order.
      *
      * @return a List of Message objects containing the message data
      */
     public List<Message> getAllMessages() {
+        return getAllMessages(MessageField.ALL);
+    }
+
+    /**
+     * Retrieves all messages from the database, reading only some of the columns.
+     *
+     * @param fields the fields to read
+     * @return a List of Message objects containing the fields read
+     */
+    public List<Message> getAllMessages(Set<MessageField> fields) {
+        if (ShardRouter.shardCount() == 1) {
+            return getAllMessagesFromShard(0, fields);
+        }
+        // Scatter the query to every shard, then gather the results into one list
+        List<Message> messages = IntStream.range(0, ShardRouter.shardCount())
+                .parallel()
+                .mapToObj(shard -> getAllMessagesFromShard(shard, fields))
+                .flatMap(List::stream)
+                .collect(Collectors.toCollection(ArrayList::new));
+        messages.sort(Comparator.comparingInt(Message::getMessage_id));
+        return messages;
+    }
+
+    /**
+     * Retrieves all messages stored in one shard.
+     *
+     * @param shard  the shard to read
+     * @param fields the fields to read
+     * @return a List of Message objects containing the fields read
+     */
+    private List<Message> getAllMessagesFromShard(int shard, Set<MessageField> fields) {
         // Establish a database connection
-        Connection connection = ConnectionUtil.getConnection();
+        Connection connection = ConnectionUtil.getShardConnection(shard);
         List<Message> messages = new ArrayList<>();
         try {
             // Prepare a SQL statement to retrieve all messages
-            String sql = "SELECT * FROM message";
+            String sql = "SELECT " + columns("", fields) + " FROM message";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
 
             // Execute the SQL statement and get the results
@@ -141,12 +196,7 @@ public class MessageDAO {
 
             // Loop through the results and create a Message object for each row
             while (rs.next()) {
-                int message_id = rs.getInt("message_id");
-                int posted_by = rs.getInt("posted_by");
-                String message_text = rs.getString("message_text");
-                long time_posted_epoch = rs.getLong("time_posted_epoch");
-                Message message = new Message(message_id, posted_by, message_text, time_posted_epoch);
-                messages.add(message);
+                messages.add(readMessage(rs, shard, fields));
             }
         } catch (SQLException e) {
             // If an SQL exception occurs, print the error message
@@ -164,14 +214,14 @@ public class MessageDAO {
      * @return true if the message was successfully updated, false otherwise
      */
     public boolean updateMessageText(int messageId, String newText) {
-        // Establish a database connection
-        Connection connection = ConnectionUtil.getConnection();
+        // Establish a connection to the shard holding the message
+        Connection connection = ConnectionUtil.getShardConnection(ShardRouter.shardForMessage(messageId));
         try {
             // Prepare a SQL statement to update the message text for the given message ID
             String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setString(1, newText);
-            preparedStatement.setInt(2, messageId);
+            preparedStatement.setInt(2, ShardRouter.localId(messageId));
 
             // Execute the SQL statement and get the number of rows updated
             int numRowsUpdated = preparedStatement.executeUpdate();
@@ -189,39 +239,32 @@ public class MessageDAO {
 
 
     /**
-     * Retrieves all messages posted by a given user.
+     * Retrieves all messages posted by a given user. All of a user's messages are in one shard, so only that shard is
+     * queried.
      *
      * @param AccountUser the ID of the user whose messages are to be retrieved
      * @return a list of Message objects representing the user's messages
      * @throws SQLException if an error occurs while accessing the database
      */
     public List<Message> retriveAllMessagesForUser(int AccountUser) throws SQLException {
-        // Get a database connection
-        Connection connection = ConnectionUtil.getConnection();
+        // Get a connection to the shard holding this user's messages
+        int shard = ShardRouter.shardForAccount(AccountUser);
+        Connection connection = ConnectionUtil.getShardConnection(shard);
 
         // Create an empty list to store the user's messages
         List<Message> messages = new ArrayList<>();
 
         try {
             // Prepare an SQL statement to retrieve the user's messages
-            String sql = "SELECT * FROM message WHERE posted_by = ?";
+            String sql = "SELECT " + columns("", MessageField.ALL) + " FROM message WHERE posted_by = ?";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, AccountUser);
 
             // Execute the SQL statement and iterate through the result set
             ResultSet rs = preparedStatement.executeQuery();
             while (rs.next()) {
-                // Retrieve the message details from the result set
-                int messageId = rs.getInt("message_id");
-                int postedBy = rs.getInt("posted_by");
-                String messageText = rs.getString("message_text");
-                long timePostedEpoch = rs.getLong("time_posted_epoch");
-
-                // Create a Message object to represent the message
-                Message message = new Message(messageId, postedBy, messageText, timePostedEpoch);
-
-                // Add the message to the list of messages
-                messages.add(message);
+                // Create a Message object to represent the message and add it to the list of messages
+                messages.add(readMessage(rs, shard, MessageField.ALL));
             }
         } catch (SQLException e) {
             // Handle any exceptions that occur during the process
@@ -232,5 +275,190 @@ public class MessageDAO {
         return messages;
     }
 
+    /**
+     * The longest array H2 accepts as a parameter.
+     */
+    private static final int MAX_ARRAY_LENGTH = 65536;
+
+    /**
+     * Retrieves many messages by id with one query per shard: the ids are passed as a single array parameter and
+     * joined against the primary key, which H2 answers faster than a long IN list or a posted_by lookup.
+     *
+     * @param messageIds the ids of the messages to retrieve
+     * @return the messages that exist, in message_id order
+     */
+    public static List<Message> getMessagesByIds(int[] messageIds) {
+        return getMessagesByIds(messageIds, MessageField.ALL);
+    }
+
+    /**
+     * Retrieves many messages by id, reading only some of the columns.
+     *
+     * @param messageIds the ids of the messages to retrieve
+     * @param fields     the fields to read
+     * @return the messages that exist, in message_id order, holding the fields read
+     */
+    public static List<Message> getMessagesByIds(int[] messageIds, Set<MessageField> fields) {
+        List<Message> messages = new ArrayList<>(messageIds.length);
+
+        // Group the local row ids by the shard holding them
+        int shards = ShardRouter.shardCount();
+        Integer[][] localIds = new Integer[shards][messageIds.length];
+        int[] counts = new int[shards];
+        for (int messageId : messageIds) {
+            int shard = ShardRouter.shardForMessage(messageId);
+            localIds[shard][counts[shard]++] = ShardRouter.localId(messageId);
+        }
+
+        for (int shard = 0; shard < shards; shard++) {
+            if (counts[shard] == 0) {
+                continue;
+            }
+            Connection connection = ConnectionUtil.getShardConnection(shard);
+            // H2 arrays hold at most MAX_ARRAY_LENGTH elements, so very long lists take several queries
+            for (int from = 0; from < counts[shard]; from += MAX_ARRAY_LENGTH) {
+                try {
+                    // Join the message table against a one column table made from the array of ids
+                    String sql = "SELECT " + columns("m.", fields) + " FROM TABLE(id INT = ?) ids JOIN message m ON m.message_id = ids.id";
+                    PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                    preparedStatement.setObject(1, Arrays.copyOfRange(localIds[shard], from, Math.min(counts[shard], from + MAX_ARRAY_LENGTH)));
+
+                    // Execute the SQL statement and add every message found
+                    ResultSet rs = preparedStatement.executeQuery();
+                    while (rs.next()) {
+                        messages.add(readMessage(rs, shard, fields));
+                    }
+                } catch (SQLException e) {
+                    // If an SQL exception occurs, print the error message
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+        messages.sort(Comparator.comparingInt(Message::getMessage_id));
+        return messages;
+    }
+
+    /**
+     * Retrieves the messages posted in a time range whose ids fall in a given range. The id range lets H2 read only
+     * the region of the primary key that can match, and the time_posted_epoch index serves the time condition.
+     *
+     * @param since  the earliest time_posted_epoch to include
+     * @param until  the latest time_posted_epoch to include
+     * @param fromId the lowest message_id that can match
+     * @param toId   the highest message_id that can match
+     * @return the matching messages, in message_id order
+     */
+    public static List<Message> getMessagesPostedBetween(long since, long until, int fromId, int toId) {
+        return getMessagesPostedBetween(since, until, fromId, toId, MessageField.ALL);
+    }
+
+    /**
+     * Retrieves the messages posted in a time range whose ids fall in a given range, reading only some of the columns.
+     *
+     * @param since  the earliest time_posted_epoch to include
+     * @param until  the latest time_posted_epoch to include
+     * @param fromId the lowest message_id that can match
+     * @param toId   the highest message_id that can match
+     * @param fields the fields to read
+     * @return the matching messages, in message_id order, holding the fields read
+     */
+    public static List<Message> getMessagesPostedBetween(long since, long until, int fromId, int toId, Set<MessageField> fields) {
+        List<Message> messages = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            Connection connection = ConnectionUtil.getShardConnection(shard);
+            try {
+                // Prepare a SQL statement limited to both ranges
+                String sql = "SELECT " + columns("", fields) + " FROM message WHERE time_posted_epoch BETWEEN ? AND ? AND message_id BETWEEN ? AND ?";
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                preparedStatement.setLong(1, since);
+                preparedStatement.setLong(2, until);
+                preparedStatement.setInt(3, ShardRouter.localId(fromId));
+                preparedStatement.setInt(4, ShardRouter.localId(toId));
+
+                // Execute the SQL statement and keep the rows whose client message_id is in range
+                ResultSet rs = preparedStatement.executeQuery();
+                while (rs.next()) {
+                    Message message = readMessage(rs, shard, fields);
+                    if (message.getMessage_id() >= fromId && message.getMessage_id() <= toId) {
+                        messages.add(message);
+                    }
+                }
+            } catch (SQLException e) {
+                // If an SQL exception occurs, print the error message
+                System.out.println(e.getMessage());
+            }
+        }
+        messages.sort(Comparator.comparingInt(Message::getMessage_id));
+        return messages;
+    }
+
+    /**
+     * Passes every message to an action, reading PAGE_ROWS rows per query so the whole table is never held in memory.
+     * The shards are read one after the other, each in message_id order.
+     *
+     * @param action called once per message
+     */
+    public static void forEachMessage(Consumer<Message> action) {
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            Connection connection = ConnectionUtil.getShardConnection(shard);
+            try {
+                // Each page starts after the last row of the one before, so every page is a range scan of the key
+                String sql = "SELECT " + columns("", MessageField.ALL) + " FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                int lastLocalId = 0;
+                int rows;
+                do {
+                    preparedStatement.setInt(1, lastLocalId);
+                    preparedStatement.setInt(2, PAGE_ROWS);
+                    ResultSet rs = preparedStatement.executeQuery();
+                    rows = 0;
+                    while (rs.next()) {
+                        lastLocalId = rs.getInt("message_id");
+                        action.accept(readMessage(rs, shard, MessageField.ALL));
+                        rows++;
+                    }
+                } while (rows == PAGE_ROWS);
+            } catch (SQLException e) {
+                // If an SQL exception occurs, print the error message
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lists the columns to select for some fields; message_id is always included.
+     *
+     * @param prefix the table alias and dot to put before every column, or ""
+     * @param fields the fields to read
+     * @return the comma separated columns
+     */
+    private static String columns(String prefix, Set<MessageField> fields) {
+        StringBuilder columns = new StringBuilder(prefix).append("message_id");
+        for (MessageField field : fields) {
+            if (field != MessageField.MESSAGE_ID) {
+                columns.append(", ").append(prefix).append(field.column());
+            }
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Creates a Message from the current row of a result set, turning the row id of the shard into the message_id
+     * clients see.
+     *
+     * @param rs     a result set positioned on a row of the message table, selected with columns(fields)
+     * @param shard  the shard the row was read from
+     * @param fields the fields selected; the others are left null or 0
+     * @return the message
+     * @throws SQLException if a column cannot be read
+     */
+    private static Message readMessage(ResultSet rs, int shard, Set<MessageField> fields) throws SQLException {
+        int message_id = ShardRouter.messageId(rs.getInt("message_id"), shard);
+        int posted_by = fields.contains(MessageField.POSTED_BY) ? rs.getInt("posted_by") : 0;
+        String message_text = fields.contains(MessageField.MESSAGE_TEXT) ? rs.getString("message_text") : null;
+        long time_posted_epoch = fields.contains(MessageField.TIME_POSTED_EPOCH) ? rs.getLong("time_posted_epoch") : 0;
+        return new Message(message_id, posted_by, message_text, time_posted_epoch);
+    }
+
 
 }// end MessageDAO
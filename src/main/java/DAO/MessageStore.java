@@ -0,0 +1,162 @@
+package DAO;
+
+import Model.Message;
+import Model.MessageField;
+import Util.AppConfig;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A MessageStore stores messages and answers every message query the service layer needs. The storage engine is
+ * chosen with the storage.engine setting:
+ * - jdbc (the default): the message table in H2, through MessageDAO
+ * - log: an append-only log of memory mapped files, see LogMessageStore
+ * - memory: everything in memory, made durable by a write-ahead log and snapshots, see MemoryStore
+ */
+public interface MessageStore {
+
+    /**
+     * Inserts a new message.
+     *
+     * @param message the message to insert, its message_id is ignored
+     * @return the inserted message with its new message_id, or null if it could not be inserted
+     */
+    Message insertMessage(Message message);
+
+    /**
+     * @param messageId the id of the message to delete
+     * @return true if the message existed and was deleted
+     */
+    boolean deleteMessage(int messageId);
+
+    /**
+     * @param messageId the id of the message
+     * @return the message, or null if there is none with that id
+     * @throws SQLException if the message could not be read
+     */
+    Message getMessageById(int messageId) throws SQLException;
+
+    /**
+     * @return every message, in message_id order
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * @param messageId the id of the message to update
+     * @param newText   the new message_text
+     * @return true if the message existed and was updated
+     */
+    boolean updateMessageText(int messageId, String newText);
+
+    /**
+     * @param accountId the posted_by to look for
+     * @return every message posted by that account
+     * @throws SQLException if the messages could not be read
+     */
+    List<Message> getMessagesForUser(int accountId) throws SQLException;
+
+    /**
+     * Reads many messages at once. Engines where a lookup by id is cheap use this default; others fetch in batches.
+     *
+     * @param messageIds the ids of the messages, in ascending order
+     * @return the messages that exist, in message_id order
+     * @throws SQLException if the messages could not be read
+     */
+    default List<Message> getMessagesByIds(int[] messageIds) throws SQLException {
+        List<Message> messages = new ArrayList<>(messageIds.length);
+        for (int messageId : messageIds) {
+            Message message = getMessageById(messageId);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Reads the messages posted in a time range, looking only at ids in a given range. Engines where a lookup by id is
+     * cheap use this default, which looks up every id in the range; others query by time.
+     *
+     * @param since  the earliest time_posted_epoch to include
+     * @param until  the latest time_posted_epoch to include
+     * @param fromId the lowest message_id that can match
+     * @param toId   the highest message_id that can match
+     * @return the matching messages, in message_id order
+     * @throws SQLException if the messages could not be read
+     */
+    default List<Message> getMessagesPostedBetween(long since, long until, int fromId, int toId) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        for (int messageId = fromId; messageId <= toId; messageId++) {
+            Message message = getMessageById(messageId);
+            if (message != null && message.getTime_posted_epoch() >= since && message.getTime_posted_epoch() <= until) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * The projected reads below let an engine skip the fields a listing does not return. The fields not read are left
+     * null or 0; the defaults read every field, for engines that hold whole messages anyway.
+     *
+     * @param fields the fields to read; message_id is always read
+     * @return every message, in message_id order
+     */
+    default List<Message> getAllMessages(Set<MessageField> fields) {
+        return getAllMessages();
+    }
+
+    /**
+     * @param messageIds the ids of the messages, in ascending order
+     * @param fields     the fields to read; message_id is always read
+     * @return the messages that exist, in message_id order
+     * @throws SQLException if the messages could not be read
+     */
+    default List<Message> getMessagesByIds(int[] messageIds, Set<MessageField> fields) throws SQLException {
+        return getMessagesByIds(messageIds);
+    }
+
+    /**
+     * @param since  the earliest time_posted_epoch to include
+     * @param until  the latest time_posted_epoch to include
+     * @param fromId the lowest message_id that can match
+     * @param toId   the highest message_id that can match
+     * @param fields the fields to read; message_id is always read
+     * @return the matching messages, in message_id order
+     * @throws SQLException if the messages could not be read
+     */
+    default List<Message> getMessagesPostedBetween(long since, long until, int fromId, int toId, Set<MessageField> fields) throws SQLException {
+        return getMessagesPostedBetween(since, until, fromId, toId);
+    }
+
+    /**
+     * Passes every message to an action, so an index can be rebuilt without holding every message in memory at once.
+     * Engines that keep their messages in memory anyway use this default.
+     *
+     * @param action called once per message, in no particular order
+     */
+    default void forEachMessage(Consumer<Message> action) {
+        getAllMessages().forEach(action);
+    }
+
+    /**
+     * @return the storage engine named by the storage.engine setting
+     */
+    static MessageStore fromConfig() {
+        String engine = AppConfig.getString("storage.engine", "jdbc");
+        switch (engine) {
+            case "jdbc":
+                return new JdbcMessageStore();
+            case "log":
+                return LogMessageStore.fromConfig();
+            case "memory":
+                return MemoryStore.instance();
+            default:
+                throw new IllegalStateException("Unknown storage.engine " + engine);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package DAO;
+
+import Util.AppConfig;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The ShardRouter decides which H2 database (shard) holds an account's messages, and encodes the shard in every
+ * message_id so a message can be found from its id alone.
+ *
+ * Accounts are placed with consistent hashing: every shard owns db.shard.virtual-nodes points on a hash ring, and an
+ * account belongs to the first point at or after its own hash. All messages of one account live on one shard, so a
+ * per-account timeline is a single-shard query.
+ *
+ * A message stored as row local_id in shard s gets message_id = local_id * shards + s. With one shard (the default)
+ * the message_id is the row id, exactly as before sharding. Because of this encoding, db.shards must not change once
+ * messages have been stored. Rows written straight into the main database without the DAO (like the seed message in
+ * SocialMedia.sql) are treated as shard 0 rows.
+ */
+public class ShardRouter {
+
+    /**
+     * The number of shards, from the db.shards setting. Shard 0 is the main database.
+     */
+    private static final int shardCount = Math.max(1, AppConfig.getInt("db.shards", 1));
+    /**
+     * The hash ring: point on the ring -> shard that owns it.
+     */
+    private static final TreeMap<Integer, Integer> ring = buildRing(AppConfig.getInt("db.shard.virtual-nodes", 128));
+
+    /**
+     * @return the number of shards
+     */
+    public static int shardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @param accountId the posted_by of a message
+     * @return the shard that stores that account's messages
+     */
+    public static int shardForAccount(int accountId) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(accountId));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * @param messageId a message_id
+     * @return the shard the message is stored in
+     */
+    public static int shardForMessage(int messageId) {
+        return messageId % shardCount;
+    }
+
+    /**
+     * @param messageId a message_id
+     * @return the row id of the message inside its shard
+     */
+    public static int localId(int messageId) {
+        return messageId / shardCount;
+    }
+
+    /**
+     * @param localId the row id inside a shard
+     * @param shard   the shard
+     * @return the message_id clients see
+     */
+    public static int messageId(int localId, int shard) {
+        return localId * shardCount + shard;
+    }
+
+    private static TreeMap<Integer, Integer> buildRing(int virtualNodes) {
+        TreeMap<Integer, Integer> points = new TreeMap<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                // Hash a name rather than a plain number, so ring points never line up with the hashes of account ids
+                points.put(hash(("shard-" + shard + "-node-" + node).hashCode()), shard);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Spreads consecutive ints evenly over the ring (the finalizer of MurmurHash3).
+     */
+    private static int hash(int value) {
+        int h = value;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
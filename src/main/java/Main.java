@@ -1,4 +1,5 @@
 import Controller.SocialMediaController;
+import Util.AppConfig;
 import io.javalin.Javalin;
 
 /**
@@ -9,6 +10,6 @@ public class Main {
     public static void main(String[] args) {
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
-        app.start(8080);
+        app.start(AppConfig.getInt("server.port", 8080));
     }
 }
@@ -0,0 +1,64 @@
+package Model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is a class that models the result of an analytics report: the rows of the report and the snapshot of the
+ * messages it was computed from.
+ */
+public class AnalyticsReport {
+    /**
+     * When the snapshot the report was computed from was taken (number of seconds since Jan 1, 1970).
+     */
+    public long snapshot_epoch;
+    /**
+     * How many messages the snapshot holds.
+     */
+    public long message_count;
+    /**
+     * The rows of the report, each a map from column name to value.
+     */
+    public List<Map<String, Long>> rows;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public AnalyticsReport() {
+    }
+
+    /**
+     * @param snapshot_epoch when the snapshot was taken
+     * @param message_count  how many messages the snapshot holds
+     * @param rows           the rows of the report
+     */
+    public AnalyticsReport(long snapshot_epoch, long message_count, List<Map<String, Long>> rows) {
+        this.snapshot_epoch = snapshot_epoch;
+        this.message_count = message_count;
+        this.rows = rows;
+    }
+
+    public long getSnapshot_epoch() {
+        return snapshot_epoch;
+    }
+
+    public void setSnapshot_epoch(long snapshot_epoch) {
+        this.snapshot_epoch = snapshot_epoch;
+    }
+
+    public long getMessage_count() {
+        return message_count;
+    }
+
+    public void setMessage_count(long message_count) {
+        this.message_count = message_count;
+    }
+
+    public List<Map<String, Long>> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<Map<String, Long>> rows) {
+        this.rows = rows;
+    }
+}
@@ -0,0 +1,47 @@
+package Model;
+
+/**
+ * This is a class that models the public part of an account, shown with the messages it posted. Unlike Account it
+ * has no password.
+ */
+public class Author {
+    /**
+     * The id of the account.
+     */
+    public int account_id;
+    /**
+     * The username of the account.
+     */
+    public String username;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public Author() {
+    }
+
+    /**
+     * @param account_id the id of the account
+     * @param username   the username of the account
+     */
+    public Author(int account_id, String username) {
+        this.account_id = account_id;
+        this.username = username;
+    }
+
+    public int getAccount_id() {
+        return account_id;
+    }
+
+    public void setAccount_id(int account_id) {
+        this.account_id = account_id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+}
@@ -0,0 +1,50 @@
+package Model;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+/**
+ * This is a class that models a message together with its author, as returned with expand=author. In JSON the fields
+ * of the message come first, followed by an author object.
+ */
+public class AuthoredMessage {
+    /**
+     * The message, written as if its fields were fields of this object.
+     */
+    @JsonUnwrapped
+    public Message message;
+    /**
+     * The account that posted the message, or null if there is no such account.
+     */
+    public Author author;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public AuthoredMessage() {
+    }
+
+    /**
+     * @param message the message
+     * @param author  the account that posted it
+     */
+    public AuthoredMessage(Message message, Author author) {
+        this.message = message;
+        this.author = author;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    public Author getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(Author author) {
+        this.author = author;
+    }
+}
@@ -0,0 +1,46 @@
+package Model;
+
+/**
+ * This is a class that models a message that is read often.
+ */
+public class HotMessage {
+    /**
+     * The id of the message.
+     */
+    public int message_id;
+    /**
+     * About how often it was read recently; older reads count for less, halving at every aging step.
+     */
+    public long reads;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public HotMessage() {
+    }
+
+    /**
+     * @param message_id the id of the message
+     * @param reads      about how often it was read recently
+     */
+    public HotMessage(int message_id, long reads) {
+        this.message_id = message_id;
+        this.reads = reads;
+    }
+
+    public int getMessage_id() {
+        return message_id;
+    }
+
+    public void setMessage_id(int message_id) {
+        this.message_id = message_id;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public void setReads(long reads) {
+        this.reads = reads;
+    }
+}
@@ -0,0 +1,88 @@
+package Model;
+
+/**
+ * This is a class that models a change to a message, as pushed to the subscribers of the live message feed.
+ */
+public class MessageEvent {
+    /**
+     * The position of the event in the feed; a subscriber that reconnects can ask for the events after it.
+     */
+    public long seq;
+    /**
+     * insert, update or delete; or resync, when the subscriber missed events and should reload the messages.
+     */
+    public String type;
+    /**
+     * The id of the message that changed.
+     */
+    public int message_id;
+    /**
+     * The account that posted the message.
+     */
+    public int posted_by;
+    /**
+     * The message after the change, or null if it was deleted.
+     */
+    public Message message;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public MessageEvent() {
+    }
+
+    /**
+     * @param seq        the position of the event in the feed
+     * @param type       insert, update, delete or resync
+     * @param message_id the id of the message that changed
+     * @param posted_by  the account that posted the message
+     * @param message    the message after the change, or null if it was deleted
+     */
+    public MessageEvent(long seq, String type, int message_id, int posted_by, Message message) {
+        this.seq = seq;
+        this.type = type;
+        this.message_id = message_id;
+        this.posted_by = posted_by;
+        this.message = message;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public int getMessage_id() {
+        return message_id;
+    }
+
+    public void setMessage_id(int message_id) {
+        this.message_id = message_id;
+    }
+
+    public int getPosted_by() {
+        return posted_by;
+    }
+
+    public void setPosted_by(int posted_by) {
+        this.posted_by = posted_by;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,47 @@
+package Model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The fields of a Message, each a column of the message table and a JSON property of the same name. Listing
+ * endpoints take a fields= query parameter naming the ones to return, and only those columns are read.
+ */
+public enum MessageField {
+    MESSAGE_ID,
+    POSTED_BY,
+    MESSAGE_TEXT,
+    TIME_POSTED_EPOCH;
+
+    /**
+     * Every field, the default when no fields are asked for.
+     */
+    public static final Set<MessageField> ALL = Collections.unmodifiableSet(EnumSet.allOf(MessageField.class));
+
+    /**
+     * @return the name of the column and of the JSON property, e.g. message_id
+     */
+    public String column() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Reads a fields= query parameter.
+     *
+     * @param fields comma separated field names, e.g. message_id,posted_by; null or blank for every field
+     * @return the fields named
+     * @throws IllegalArgumentException if a name is not a field of a Message
+     */
+    public static Set<MessageField> parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return ALL;
+        }
+        Set<MessageField> parsed = EnumSet.noneOf(MessageField.class);
+        for (String name : fields.split(",", -1)) {
+            parsed.add(MessageField.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+        }
+        return parsed.size() == ALL.size() ? ALL : Collections.unmodifiableSet(parsed);
+    }
+}
@@ -0,0 +1,91 @@
+package Model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * This is a class that models the statistics of the messages of one account, or of all messages.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MessageStats {
+    /**
+     * The account the statistics are about, or null for the statistics of all messages.
+     */
+    public Integer account_id;
+    /**
+     * How many messages there are.
+     */
+    public long message_count;
+    /**
+     * The earliest time_posted_epoch of the messages, or null if there are none.
+     */
+    public Long first_post_epoch;
+    /**
+     * The latest time_posted_epoch of the messages, or null if there are none.
+     */
+    public Long last_post_epoch;
+    /**
+     * The mean length of message_text, or 0 if there are no messages.
+     */
+    public double average_text_length;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public MessageStats() {
+    }
+
+    /**
+     * @param account_id          the account, or null for all messages
+     * @param message_count       how many messages there are
+     * @param first_post_epoch    the earliest time_posted_epoch, or null if there are no messages
+     * @param last_post_epoch     the latest time_posted_epoch, or null if there are no messages
+     * @param average_text_length the mean length of message_text
+     */
+    public MessageStats(Integer account_id, long message_count, Long first_post_epoch, Long last_post_epoch, double average_text_length) {
+        this.account_id = account_id;
+        this.message_count = message_count;
+        this.first_post_epoch = first_post_epoch;
+        this.last_post_epoch = last_post_epoch;
+        this.average_text_length = average_text_length;
+    }
+
+    public Integer getAccount_id() {
+        return account_id;
+    }
+
+    public void setAccount_id(Integer account_id) {
+        this.account_id = account_id;
+    }
+
+    public long getMessage_count() {
+        return message_count;
+    }
+
+    public void setMessage_count(long message_count) {
+        this.message_count = message_count;
+    }
+
+    public Long getFirst_post_epoch() {
+        return first_post_epoch;
+    }
+
+    public void setFirst_post_epoch(Long first_post_epoch) {
+        this.first_post_epoch = first_post_epoch;
+    }
+
+    public Long getLast_post_epoch() {
+        return last_post_epoch;
+    }
+
+    public void setLast_post_epoch(Long last_post_epoch) {
+        this.last_post_epoch = last_post_epoch;
+    }
+
+    public double getAverage_text_length() {
+        return average_text_length;
+    }
+
+    public void setAverage_text_length(double average_text_length) {
+        this.average_text_length = average_text_length;
+    }
+}
@@ -0,0 +1,66 @@
+package Model;
+
+import java.util.Objects;
+
+/**
+ * This is a class that models a term trending in recently posted messages.
+ */
+public class TrendingTerm {
+    /**
+     * The term, in lower case.
+     */
+    public String term;
+    /**
+     * About how many of the recently posted messages contain the term; never fewer than really do.
+     */
+    public long count;
+
+    /**
+     * A default, no-args constructor is needed for Jackson ObjectMapper to work.
+     */
+    public TrendingTerm() {
+    }
+
+    /**
+     * @param term  the term
+     * @param count about how many recent messages contain it
+     */
+    public TrendingTerm(String term, long count) {
+        this.term = term;
+        this.count = count;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public void setTerm(String term) {
+        this.term = term;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TrendingTerm that = (TrendingTerm) o;
+        return count == that.count && Objects.equals(term, that.term);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(term, count);
+    }
+
+    @Override
+    public String toString() {
+        return "TrendingTerm{term='" + term + "', count=" + count + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package Service;
+
+import Util.IntObjectMap;
+
+import java.util.Arrays;
+
+/**
+ * The ids of each account's messages, so listing an account's messages is a lookup here followed by one batched
+ * fetch instead of a scan for posted_by.
+ *
+ * Each account has one int array holding its message count in element 0 followed by its message_ids in ascending
+ * order; the arrays grow by half when full. There is no boxing and no object per message, so the index costs about
+ * 4 bytes per message plus the growth slack (up to a third of the array) and about 40 bytes per account for the array
+ * header and map slot: roughly 5-6MB per million messages.
+ *
+ * It is rebuilt from the MessageMetaIndex, and kept current through the InvalidationBus: it must be registered after
+ * the MessageMetaIndex, so the meta index already reflects a change when this index hears of it.
+ */
+public class AccountMessageIndex implements InvalidationListener {
+
+    private final MessageMetaIndex metaIndex;
+    private final IntObjectMap<int[]> idsByAccount = new IntObjectMap<>();
+
+    /**
+     * @param metaIndex tells whether a message exists and who posted it
+     */
+    public AccountMessageIndex(MessageMetaIndex metaIndex) {
+        this.metaIndex = metaIndex;
+        invalidateAll();
+    }
+
+    /**
+     * @param accountId the posted_by to look for
+     * @return the ids of the account's messages, in ascending order
+     */
+    public synchronized int[] idsFor(int accountId) {
+        int[] ids = idsByAccount.get(accountId);
+        return ids == null ? new int[0] : Arrays.copyOfRange(ids, 1, ids[0] + 1);
+    }
+
+    /**
+     * Records a message under an account; adding it twice has no effect.
+     */
+    public synchronized void add(int accountId, int messageId) {
+        int[] ids = idsByAccount.get(accountId);
+        if (ids == null) {
+            ids = new int[4];
+            idsByAccount.put(accountId, ids);
+        }
+        int count = ids[0];
+        int at = Arrays.binarySearch(ids, 1, count + 1, messageId);
+        if (at >= 0) {
+            return;
+        }
+        at = -at - 1;
+        if (count + 1 == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length + (ids.length >> 1));
+            idsByAccount.put(accountId, ids);
+        }
+        // New messages nearly always have the highest id, so this rarely moves anything
+        System.arraycopy(ids, at, ids, at + 1, count + 1 - at);
+        ids[at] = messageId;
+        ids[0] = count + 1;
+    }
+
+    /**
+     * Forgets a message of an account; removing a message that is not there has no effect.
+     */
+    public synchronized void remove(int accountId, int messageId) {
+        int[] ids = idsByAccount.get(accountId);
+        if (ids == null) {
+            return;
+        }
+        int count = ids[0];
+        int at = Arrays.binarySearch(ids, 1, count + 1, messageId);
+        if (at < 0) {
+            return;
+        }
+        System.arraycopy(ids, at + 1, ids, at, count - at);
+        ids[0] = count - 1;
+    }
+
+    /**
+     * Adds or removes the message according to the meta index. Updates do not change posted_by, so they leave the
+     * index as it is. posted_by is read once, as the message may be deleted in between two reads.
+     */
+    @Override
+    public void invalidate(int messageId, int accountId) {
+        int postedBy = metaIndex.postedBy(messageId);
+        if (postedBy != 0) {
+            add(postedBy, messageId);
+        } else if (accountId != 0) {
+            remove(accountId, messageId);
+        }
+    }
+
+    /**
+     * Rebuilds the whole index from the meta index.
+     */
+    @Override
+    public synchronized void invalidateAll() {
+        idsByAccount.clear();
+        int maxId = metaIndex.maxId();
+        for (int messageId = 1; messageId <= maxId; messageId++) {
+            if (metaIndex.contains(messageId)) {
+                add(metaIndex.postedBy(messageId), messageId);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package Service;
 import java.sql.SQLException;
 
 import DAO.AccountDAO;
+import DAO.AccountStore;
 import Model.Account;
 import io.javalin.http.Context;
 
@@ -10,6 +11,11 @@ public class AccountService {
 
     private AccountDAO accountDAO;
 
+    /**
+     * Where accounts are stored, chosen with the storage.engine setting.
+     */
+    private static final AccountStore store = AccountStore.fromConfig();
+
     public AccountService() {
         accountDAO = new AccountDAO();
     }
@@ -22,7 +28,7 @@ public class AccountService {
      * @return an Account object with the generated primary key if registration is successful, null otherwise
      */
     public static Account registerAccount(Account account) {
-        return AccountDAO.registerAccount(account);
+        return store.registerAccount(account);
     }
 
     /**
@@ -35,7 +41,7 @@ public class AccountService {
      */
     public static void login(Context ctx, String username, String password) throws SQLException {
         // Get the account associated with the provided username and password
-        Account account = AccountDAO.getAccountByUserNameAndPassword(username, password);
+        Account account = store.getAccountByUserNameAndPassword(username, password);
 
         // If the account is null, return a 401 response indicating that the login credentials were incorrect
         if (account == null) {
@@ -0,0 +1,122 @@
+package Service;
+
+import DAO.AccountStore;
+import Model.Author;
+import Model.AuthoredMessage;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * account_id -> Author, to show the username of every message in a listing without a query per message.
+ *
+ * A listing looks its authors up here; the accounts not known yet are read from the AccountStore in one batch, and
+ * then kept. There is one Author per account, and so one username String, however many messages of the account a
+ * listing holds; reading the usernames with a JOIN instead would create a String per row, and would not work for
+ * messages kept in other shards or storage engines. Usernames never change, so an entry stays correct until the
+ * database is reset, which clears the dictionary. It holds at most one entry per account.
+ */
+public class AuthorDictionary {
+
+    private final AccountStore accounts;
+    private final IntObjectMap<Author> authors = new IntObjectMap<>();
+    /**
+     * Counts clear() calls, so accounts read before a reset are not added after it.
+     */
+    private long clears = 0;
+
+    /**
+     * @param accounts where unknown accounts are read from
+     */
+    public AuthorDictionary(AccountStore accounts) {
+        this.accounts = accounts;
+    }
+
+    /**
+     * @param accounts where unknown accounts are read from
+     * @return a dictionary cleared when the database is reset
+     */
+    public static AuthorDictionary fromConfig(AccountStore accounts) {
+        AuthorDictionary dictionary = new AuthorDictionary(accounts);
+        ConnectionUtil.addResetListener(dictionary::clear);
+        return dictionary;
+    }
+
+    /**
+     * Pairs every message with its author.
+     *
+     * @param messages messages with their posted_by read
+     * @return the messages in the same order, each with the account that posted it, or no author if there is no such
+     * account
+     */
+    public List<AuthoredMessage> withAuthors(List<Message> messages) {
+        long stamp;
+        int[] missing;
+        synchronized (this) {
+            stamp = clears;
+            missing = missing(messages);
+        }
+        load(missing, stamp);
+        List<AuthoredMessage> authored = new ArrayList<>(messages.size());
+        synchronized (this) {
+            for (Message message : messages) {
+                authored.add(new AuthoredMessage(message, authors.get(message.getPosted_by())));
+            }
+        }
+        return authored;
+    }
+
+    /**
+     * Forgets every author.
+     */
+    public synchronized void clear() {
+        clears++;
+        authors.clear();
+    }
+
+    /**
+     * The caller holds the lock.
+     *
+     * @return the distinct posted_by of the messages that are not in the dictionary yet
+     */
+    private int[] missing(List<Message> messages) {
+        int[] missing = new int[16];
+        int count = 0;
+        for (Message message : messages) {
+            int accountId = message.getPosted_by();
+            if (accountId != 0 && authors.get(accountId) == null) {
+                if (count == missing.length) {
+                    missing = Arrays.copyOf(missing, count * 2);
+                }
+                missing[count++] = accountId;
+            }
+        }
+        return Arrays.stream(missing, 0, count).sorted().distinct().toArray();
+    }
+
+    /**
+     * Reads accounts from the store in one batch and adds them, keeping any Author another listing added meanwhile,
+     * unless the dictionary was cleared since the stamp was taken.
+     */
+    private void load(int[] accountIds, long stamp) {
+        if (accountIds.length == 0) {
+            return;
+        }
+        Map<Integer, String> usernames = accounts.getUsernames(accountIds);
+        synchronized (this) {
+            if (stamp != clears) {
+                return;
+            }
+            for (Map.Entry<Integer, String> username : usernames.entrySet()) {
+                if (authors.get(username.getKey()) == null) {
+                    authors.put(username.getKey(), new Author(username.getKey(), username.getValue()));
+                }
+            }
+        }
+    }
+}
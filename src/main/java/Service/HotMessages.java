@@ -0,0 +1,280 @@
+package Service;
+
+import Model.HotMessage;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Finds the messages read most often by GET /messages/{message_id}, in fixed memory.
+ *
+ * A read only writes its id to a ring buffer, taking no lock; every DRAIN_READS reads one reader drains the buffer into
+ * the counts while the others go on. Reads written over before they are drained are lost, which only thins the sample.
+ *
+ * Each drained read is added to a CountMinSketch, and every sampleSize reads all counts are halved, so the counts
+ * follow recent traffic and a message that stops being read cools down. Beside the sketch a bounded set of candidates
+ * keeps the ids with the highest counts, twice as many as the hot set, ordered by count so the coldest is found at
+ * once. The hot set is the top of the candidates; it is worked out again every REFRESH_READS reads and at every
+ * halving, and handed to a listener - the MessageCache pins the hot messages so scans of cold messages cannot evict
+ * them.
+ *
+ * The counts start over when the database is reset, since message_ids are then reused.
+ *
+ * Settings: service.hot-messages.*.
+ */
+public class HotMessages {
+
+    /**
+     * How many reads pass between working out the hot set again.
+     */
+    private static final int REFRESH_READS = 1024;
+    /**
+     * The size of the read buffer, and how many reads pass between drains of it.
+     */
+    private static final int BUFFER_SIZE = 1024;
+    private static final int DRAIN_READS = 128;
+
+    /**
+     * A candidate and its estimated reads when last counted; replaced, not changed, as it is kept sorted.
+     */
+    private static class Candidate {
+        final int messageId;
+        final long reads;
+
+        Candidate(int messageId, long reads) {
+            this.messageId = messageId;
+            this.reads = reads;
+        }
+    }
+
+    private final CountMinSketch sketch;
+    private final int hotSize;
+    private final int sampleSize;
+    private final Consumer<Set<Integer>> onHotSetChange;
+    /**
+     * Recorded reads not counted yet: read number n is in slot n % BUFFER_SIZE, and 0 marks an empty slot.
+     */
+    private final AtomicIntegerArray buffer = new AtomicIntegerArray(BUFFER_SIZE);
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    /**
+     * The number of the next read to drain.
+     */
+    private long drained = 0;
+    private final Map<Integer, Candidate> candidates = new HashMap<>();
+    /**
+     * The candidates, coldest first.
+     */
+    private final TreeSet<Candidate> byReads = new TreeSet<>(
+            Comparator.<Candidate>comparingLong(candidate -> candidate.reads)
+                    .thenComparing(candidate -> candidate.messageId, Comparator.reverseOrder()));
+    private Set<Integer> hot = Set.of();
+    private int readsSinceHalving = 0;
+    private int readsSinceRefresh = 0;
+
+    /**
+     * @param width          the counters per row of the sketch
+     * @param depth          the rows of the sketch
+     * @param hotSize        how many messages make up the hot set
+     * @param sampleSize     how many reads pass between halvings
+     * @param onHotSetChange told the new hot set whenever it changes
+     */
+    public HotMessages(int width, int depth, int hotSize, int sampleSize, Consumer<Set<Integer>> onHotSetChange) {
+        this.sketch = new CountMinSketch(width, depth);
+        this.hotSize = hotSize;
+        this.sampleSize = sampleSize;
+        this.onHotSetChange = onHotSetChange;
+    }
+
+    /**
+     * @param onHotSetChange told the new hot set whenever it changes
+     * @return a tracker configured from the service.hot-messages.* settings, cleared when the database is reset
+     */
+    public static HotMessages fromConfig(Consumer<Set<Integer>> onHotSetChange) {
+        int width = AppConfig.getInt("service.hot-messages.sketch-width", 4096);
+        HotMessages hotMessages = new HotMessages(width,
+                AppConfig.getInt("service.hot-messages.sketch-depth", 4),
+                AppConfig.getInt("service.hot-messages.pinned", 100),
+                // As in TinyLFU, age once the sketch has seen about ten reads per counter
+                AppConfig.getInt("service.hot-messages.sample-size", 10 * width),
+                onHotSetChange);
+        ConnectionUtil.addResetListener(hotMessages::clear);
+        return hotMessages;
+    }
+
+    /**
+     * Records a read of a message, to be counted at the next drain.
+     *
+     * @param messageId the id of the message read
+     */
+    public void record(int messageId) {
+        long read = recorded.getAndIncrement();
+        buffer.set((int) (read % BUFFER_SIZE), messageId);
+        if (read % DRAIN_READS == DRAIN_READS - 1) {
+            tryDrain();
+        }
+    }
+
+    /**
+     * @param limit the most messages to list
+     * @return the messages read most often recently, most read first
+     */
+    public List<HotMessage> top(int limit) {
+        tryDrain();
+        synchronized (this) {
+            return topCandidates(limit);
+        }
+    }
+
+    /**
+     * Forgets every count and empties the hot set.
+     */
+    public void clear() {
+        synchronized (this) {
+            sketch.clear();
+            candidates.clear();
+            byReads.clear();
+            for (int slot = 0; slot < BUFFER_SIZE; slot++) {
+                buffer.set(slot, 0);
+            }
+            drained = recorded.get();
+            hot = Set.of();
+            readsSinceHalving = 0;
+            readsSinceRefresh = 0;
+        }
+        onHotSetChange.accept(Set.of());
+    }
+
+    /**
+     * Drains the buffer unless another thread is doing so, and passes on a changed hot set. One drain at a time, so
+     * hot sets are passed on in the order they were worked out.
+     */
+    private void tryDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Set<Integer> changed = drain();
+            if (changed != null) {
+                onHotSetChange.accept(changed);
+            }
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    /**
+     * Counts the reads in the buffer.
+     *
+     * @return the new hot set, or null if it is unchanged
+     */
+    private synchronized Set<Integer> drain() {
+        long end = recorded.get();
+        // Reads more than a buffer behind were written over
+        long from = Math.max(drained, end - BUFFER_SIZE);
+        drained = end;
+        boolean refresh = false;
+        for (long read = from; read < end; read++) {
+            int messageId = buffer.getAndSet((int) (read % BUFFER_SIZE), 0);
+            if (messageId == 0) {
+                continue;
+            }
+            sketch.add(messageId, 1);
+            offer(messageId, sketch.estimate(messageId));
+            if (++readsSinceHalving >= sampleSize) {
+                readsSinceHalving = 0;
+                halve();
+                refresh = true;
+            }
+            if (++readsSinceRefresh >= REFRESH_READS) {
+                refresh = true;
+            }
+        }
+        if (!refresh) {
+            return null;
+        }
+        readsSinceRefresh = 0;
+        return refreshHotSet();
+    }
+
+    /**
+     * Halves the sketch and the candidates' reads, dropping candidates left with none.
+     */
+    private void halve() {
+        sketch.halve();
+        List<Candidate> halved = new ArrayList<>(byReads.size());
+        for (Candidate candidate : byReads) {
+            if (candidate.reads >>> 1 > 0) {
+                halved.add(new Candidate(candidate.messageId, candidate.reads >>> 1));
+            }
+        }
+        candidates.clear();
+        byReads.clear();
+        for (Candidate candidate : halved) {
+            candidates.put(candidate.messageId, candidate);
+            byReads.add(candidate);
+        }
+    }
+
+    /**
+     * Keeps a message as a candidate if there is room or it now has more reads than the coldest candidate.
+     */
+    private void offer(int messageId, long reads) {
+        Candidate existing = candidates.get(messageId);
+        if (existing != null) {
+            byReads.remove(existing);
+        } else if (candidates.size() >= 2 * hotSize) {
+            Candidate coldest = byReads.first();
+            if (reads <= coldest.reads) {
+                return;
+            }
+            byReads.pollFirst();
+            candidates.remove(coldest.messageId);
+        }
+        Candidate candidate = new Candidate(messageId, reads);
+        candidates.put(messageId, candidate);
+        byReads.add(candidate);
+    }
+
+    /**
+     * @return the first limit candidates, most read first and by id when reads are equal
+     */
+    private List<HotMessage> topCandidates(int limit) {
+        List<HotMessage> top = new ArrayList<>();
+        for (Candidate candidate : byReads.descendingSet()) {
+            if (top.size() == limit) {
+                break;
+            }
+            top.add(new HotMessage(candidate.messageId, candidate.reads));
+        }
+        return top;
+    }
+
+    /**
+     * @return the new hot set, or null if it is unchanged
+     */
+    private Set<Integer> refreshHotSet() {
+        Set<Integer> next = new HashSet<>();
+        for (HotMessage message : topCandidates(hotSize)) {
+            next.add(message.message_id);
+        }
+        if (next.equals(hot)) {
+            return null;
+        }
+        hot = Set.copyOf(next);
+        return hot;
+    }
+}
@@ -0,0 +1,279 @@
+package Service;
+
+import Util.AppConfig;
+import Util.ConnectionUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The InvalidationBus tells every API process sharing the database which messages changed, so in-process caches do
+ * not serve stale data after another process handles a POST, PATCH or DELETE.
+ *
+ * Every change is written to the message_change table, whose auto increment seq column is the sequence number of the
+ * change. Each process polls the table for rows newer than the last seq it has seen and passes them to its listeners.
+ * A process that could not reach the database simply catches up from its last seq on the next successful poll. If the
+ * rows it needs were already pruned, or the table was reset, it cannot know what it missed and tells its listeners to
+ * forget everything. The rows this process wrote itself are skipped by the poll, as its listeners heard of those
+ * changes when they were published.
+ *
+ * The table is only written and polled when other processes can share the database: with storage.engine=jdbc and a
+ * db.url other processes can open (an H2 tcp or ssl url, AUTO_SERVER, or db.server.start=true). Otherwise changes only
+ * go to the listeners of this process, and writes never wait for the extra insert. service.invalidation.enabled set
+ * to true or false overrides the check.
+ *
+ * Settings: service.invalidation.enabled, service.invalidation.poll-ms (how often to poll) and
+ * service.invalidation.retention (how many changes to keep in the table).
+ */
+public class InvalidationBus {
+
+    private static final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * The seq of the last change passed to the listeners.
+     */
+    private static long lastSeq = -1;
+    private static ScheduledExecutorService poller = null;
+    private static boolean started = false;
+    /**
+     * Whether changes are shared with other processes through message_change.
+     */
+    private static final boolean enabled = sharesDatabase();
+    /**
+     * The seqs of the rows this process wrote that the poll has not passed yet.
+     */
+    private static final Set<Long> ownSeqs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Registers a listener and starts polling if this is the first one.
+     *
+     * @param listener the cache or index to notify
+     */
+    public static synchronized void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+        if (!started) {
+            start();
+        }
+    }
+
+    /**
+     * @return whether changes are shared with other processes, see the class comment
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if service.invalidation.enabled says so, or if it is not set and other processes can open the
+     * database this process uses
+     */
+    private static boolean sharesDatabase() {
+        String setting = AppConfig.getString("service.invalidation.enabled", "");
+        if (!setting.isEmpty()) {
+            return Boolean.parseBoolean(setting);
+        }
+        if (!AppConfig.getString("storage.engine", "jdbc").equals("jdbc")) {
+            return false;
+        }
+        String url = AppConfig.getString("db.url", "jdbc:h2:./h2/db").toLowerCase(Locale.ROOT);
+        return !url.startsWith("jdbc:h2:") || url.startsWith("jdbc:h2:tcp:") || url.startsWith("jdbc:h2:ssl:")
+                || url.contains("auto_server=true") || AppConfig.getBoolean("db.server.start", false);
+    }
+
+    /**
+     * Records a change so every process hears about it, and notifies the listeners in this process right away so this
+     * process reads its own writes.
+     *
+     * @param messageId  the message that changed
+     * @param accountId  the account that posted it
+     * @param changeType insert, update or delete
+     */
+    public static void publish(int messageId, int accountId, String changeType) {
+        if (enabled) {
+            Connection connection = ConnectionUtil.getConnection();
+            String sql = "INSERT INTO message_change (message_id, account_id, change_type) VALUES (?, ?, ?)";
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                preparedStatement.setInt(1, messageId);
+                preparedStatement.setInt(2, accountId);
+                preparedStatement.setString(3, changeType);
+                preparedStatement.executeUpdate();
+                ResultSet keys = preparedStatement.getGeneratedKeys();
+                if (keys.next()) {
+                    ownSeqs.add(keys.getLong(1));
+                }
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        for (InvalidationListener listener : listeners) {
+            listener.invalidate(messageId, accountId);
+        }
+    }
+
+    /**
+     * Starts the polling thread, beginning from the newest change in the table: nothing is cached yet, so there is
+     * nothing older to catch up on. Without sharing, only resets are passed on.
+     */
+    private static void start() {
+        started = true;
+        ConnectionUtil.addResetListener(InvalidationBus::onReset);
+        if (!enabled) {
+            return;
+        }
+        lastSeq = maxSeq();
+        long pollMillis = AppConfig.getLong("service.invalidation.poll-ms", 100);
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "InvalidationBus");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(InvalidationBus::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The database was reset in this process: every cached message is gone and the seq numbers start over.
+     */
+    private static synchronized void onReset() {
+        if (enabled) {
+            lastSeq = maxSeq();
+            ownSeqs.clear();
+        }
+        listeners.forEach(InvalidationListener::invalidateAll);
+    }
+
+    /**
+     * Passes every change newer than lastSeq to the listeners, then prunes old changes.
+     */
+    private static synchronized void poll() {
+        Connection connection = ConnectionUtil.getConnection();
+        try {
+            long oldest = minSeq();
+            long newest = maxSeq();
+            if (newest < lastSeq || (oldest > lastSeq + 1 && lastSeq >= 0)) {
+                // The table was reset or pruned past our position, so some changes can no longer be read.
+                listeners.forEach(InvalidationListener::invalidateAll);
+                lastSeq = newest;
+                ownSeqs.clear();
+                return;
+            }
+            String sql = "SELECT seq, message_id, account_id FROM message_change WHERE seq > ? ORDER BY seq LIMIT 1000";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setLong(1, lastSeq);
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                long seq = rs.getLong("seq");
+                if (ownSeqs.remove(seq)) {
+                    // Published by this process, whose listeners heard of it then
+                    lastSeq = seq;
+                    continue;
+                }
+                int messageId = rs.getInt("message_id");
+                int accountId = rs.getInt("account_id");
+                for (InvalidationListener listener : listeners) {
+                    try {
+                        listener.invalidate(messageId, accountId, seq);
+                    } catch (RuntimeException e) {
+                        // One listener failing on one change must not keep the others from it, or stop the poller
+                        System.out.println(e.getMessage());
+                    }
+                }
+                lastSeq = seq;
+            }
+            // A row polled before publish recorded its seq was delivered again; forget it
+            ownSeqs.removeIf(seq -> seq <= lastSeq);
+            prune(newest);
+        } catch (SQLException e) {
+            // The database could not be reached; lastSeq is unchanged, so the next poll catches up.
+            System.out.println(e.getMessage());
+        } catch (RuntimeException e) {
+            // An exception escaping the scheduled task would cancel every later poll
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes all but the newest service.invalidation.retention changes. A process that falls further behind than
+     * that forgets its caches instead of catching up.
+     */
+    private static void prune(long newest) throws SQLException {
+        long retention = AppConfig.getLong("service.invalidation.retention", 100000);
+        if (newest > retention * 2) {
+            PreparedStatement preparedStatement = ConnectionUtil.getConnection()
+                    .prepareStatement("DELETE FROM message_change WHERE seq <= ?");
+            preparedStatement.setLong(1, newest - retention);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the seq of the newest change in the table, 0 if there is none or changes are not shared
+     */
+    public static long latestSeq() {
+        return enabled ? maxSeq() : 0;
+    }
+
+    /**
+     * Lets an index saved to disk catch up with the changes made while it was not running.
+     *
+     * @param seq the seq of the last change the index had applied when it was saved
+     * @return the ids of the messages changed since then, or null if some of those changes are no longer in the table
+     * (pruned, or the table was reset); none if changes are not shared, as then this process is the only writer
+     */
+    public static int[] changedSince(long seq) {
+        if (!enabled) {
+            return new int[0];
+        }
+        long oldest = minSeq();
+        long newest = maxSeq();
+        if (newest < seq || (oldest > seq + 1 && newest > seq)) {
+            return null;
+        }
+        try {
+            PreparedStatement preparedStatement = ConnectionUtil.getConnection()
+                    .prepareStatement("SELECT DISTINCT message_id FROM message_change WHERE seq > ?");
+            preparedStatement.setLong(1, seq);
+            ResultSet rs = preparedStatement.executeQuery();
+            int[] ids = new int[16];
+            int count = 0;
+            while (rs.next()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = rs.getInt(1);
+            }
+            return Arrays.copyOf(ids, count);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    private static long maxSeq() {
+        return querySeq("SELECT COALESCE(MAX(seq), 0) FROM message_change");
+    }
+
+    private static long minSeq() {
+        return querySeq("SELECT COALESCE(MIN(seq), 0) FROM message_change");
+    }
+
+    private static long querySeq(String sql) {
+        try (Statement statement = ConnectionUtil.getConnection().createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return 0;
+        }
+    }
+}
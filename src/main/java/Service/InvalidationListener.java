@@ -0,0 +1,33 @@
+package Service;
+
+/**
+ * Something that keeps message data in memory and must forget it when a message changes, in this process or in any
+ * other API process that shares the database.
+ */
+public interface InvalidationListener {
+
+    /**
+     * A message was inserted, updated or deleted.
+     *
+     * @param messageId the id of the message that changed
+     * @param accountId the account that posted the message
+     */
+    void invalidate(int messageId, int accountId);
+
+    /**
+     * A change read from the message_change table, made by this process or another one. Listeners that save
+     * themselves and catch up from message_change on the next start override this to remember how far they got.
+     *
+     * @param messageId the id of the message that changed
+     * @param accountId the account that posted the message
+     * @param seq       the seq of the change
+     */
+    default void invalidate(int messageId, int accountId, long seq) {
+        invalidate(messageId, accountId);
+    }
+
+    /**
+     * Changes may have been missed (or the database was reset), so everything kept in memory must be forgotten.
+     */
+    void invalidateAll();
+}
@@ -0,0 +1,317 @@
+package Service;
+
+import Model.AnalyticsReport;
+import Util.AppConfig;
+import Util.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+
+/**
+ * Reports over all messages - top posters, posts per time bucket and a histogram of text lengths - computed from a
+ * columnar snapshot of the MessageMetaIndex: one int[] of posted_by, one long[] of time_posted_epoch and one int[] of
+ * text lengths. A report is a fork/join scan that splits the arrays into slices, scans each slice on its own thread
+ * into a small partial result and merges the partial results, so no Message object is read or created.
+ *
+ * The snapshot is taken again on a schedule when messages have changed since the last one, so reports can lag behind
+ * the latest changes by up to one refresh interval; each report says when its snapshot was taken. After a reset it is
+ * taken again at once, so it must be registered on the InvalidationBus after the MessageMetaIndex.
+ *
+ * Settings: service.analytics.refresh-ms, service.analytics.parallelism.
+ */
+public class MessageAnalytics implements InvalidationListener {
+
+    /**
+     * Slices at most this long are scanned on one thread.
+     */
+    private static final int SLICE = 1 << 16;
+    /**
+     * The most buckets a posts per bucket report may have.
+     */
+    public static final int MAX_BUCKETS = 10000;
+
+    /**
+     * The columns of every message at one point in time; row i of each array is the same message.
+     */
+    private static class Snapshot {
+        final long takenAt;
+        final int count;
+        final int[] postedBy;
+        final long[] epochs;
+        final int[] lengths;
+        final long firstEpoch;
+        final long lastEpoch;
+        final int maxLength;
+
+        Snapshot(long takenAt, int count, int[] postedBy, long[] epochs, int[] lengths) {
+            this.takenAt = takenAt;
+            this.count = count;
+            this.postedBy = postedBy;
+            this.epochs = epochs;
+            this.lengths = lengths;
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            int longest = 0;
+            for (int i = 0; i < count; i++) {
+                first = Math.min(first, epochs[i]);
+                last = Math.max(last, epochs[i]);
+                longest = Math.max(longest, lengths[i]);
+            }
+            this.firstEpoch = first;
+            this.lastEpoch = last;
+            this.maxLength = longest;
+        }
+    }
+
+    /**
+     * Scans the rows from (inclusive) to (exclusive) of the snapshot.
+     */
+    private interface SliceScan<R> {
+        R scan(int from, int to);
+    }
+
+    /**
+     * Splits a range of rows in half until it is no longer than SLICE, scans the slices in parallel and merges their
+     * results.
+     */
+    private static class ScanTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final SliceScan<R> slice;
+        private final BinaryOperator<R> merge;
+
+        ScanTask(int from, int to, SliceScan<R> slice, BinaryOperator<R> merge) {
+            this.from = from;
+            this.to = to;
+            this.slice = slice;
+            this.merge = merge;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= SLICE) {
+                return slice.scan(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask<R> left = new ScanTask<>(from, middle, slice, merge);
+            left.fork();
+            R right = new ScanTask<>(middle, to, slice, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+
+    private final MessageMetaIndex metaIndex;
+    private final ForkJoinPool pool;
+    private volatile Snapshot snapshot;
+    /**
+     * Whether a message has changed since the snapshot was taken.
+     */
+    private volatile boolean changed = false;
+
+    /**
+     * Takes the first snapshot.
+     *
+     * @param metaIndex   the messages to report on
+     * @param parallelism how many threads scan a snapshot
+     */
+    public MessageAnalytics(MessageMetaIndex metaIndex, int parallelism) {
+        this.metaIndex = metaIndex;
+        this.pool = new ForkJoinPool(parallelism);
+        refresh();
+    }
+
+    /**
+     * @param metaIndex the messages to report on
+     * @return analytics configured from the service.analytics.* settings, with the snapshot refreshed on a schedule
+     */
+    public static MessageAnalytics fromConfig(MessageMetaIndex metaIndex) {
+        int parallelism = AppConfig.getInt("service.analytics.parallelism", 0);
+        MessageAnalytics analytics = new MessageAnalytics(metaIndex,
+                parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        long refreshMillis = AppConfig.getLong("service.analytics.refresh-ms", 60000);
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AnalyticsRefresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            if (analytics.changed) {
+                analytics.refresh();
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        return analytics;
+    }
+
+    /**
+     * Copies the meta index into new columns and makes them the snapshot reports read.
+     */
+    public void refresh() {
+        changed = false;
+        int maxId = metaIndex.maxId();
+        int[] postedBy = new int[Math.max(16, maxId)];
+        long[] epochs = new long[postedBy.length];
+        int[] lengths = new int[postedBy.length];
+        int count = 0;
+        for (int messageId = 1; messageId <= maxId; messageId++) {
+            if (metaIndex.contains(messageId)) {
+                postedBy[count] = metaIndex.postedBy(messageId);
+                epochs[count] = metaIndex.timePosted(messageId);
+                lengths[count] = metaIndex.textLength(messageId);
+                count++;
+            }
+        }
+        snapshot = new Snapshot(System.currentTimeMillis() / 1000, count, postedBy, epochs, lengths);
+    }
+
+    private <R> R scan(Snapshot current, SliceScan<R> slice, BinaryOperator<R> merge) {
+        return pool.invoke(new ScanTask<>(0, current.count, slice, merge));
+    }
+
+    /**
+     * @param limit the most accounts to list
+     * @return the accounts with the most messages, most first, as rows of account_id and message_count
+     */
+    public AnalyticsReport topPosters(int limit) {
+        Snapshot current = snapshot;
+        // Each slice counts into its own map; the values are {account_id, count} so a merge can read the keys
+        IntObjectMap<long[]> counts = scan(current, (from, to) -> {
+            IntObjectMap<long[]> partial = new IntObjectMap<>();
+            for (int i = from; i < to; i++) {
+                long[] count = partial.get(current.postedBy[i]);
+                if (count == null) {
+                    count = new long[]{current.postedBy[i], 0};
+                    partial.put(current.postedBy[i], count);
+                }
+                count[1]++;
+            }
+            return partial;
+        }, (left, right) -> {
+            right.forEachValue(count -> {
+                long[] existing = left.get((int) count[0]);
+                if (existing == null) {
+                    left.put((int) count[0], count);
+                } else {
+                    existing[1] += count[1];
+                }
+            });
+            return left;
+        });
+
+        Comparator<long[]> byCount = Comparator.<long[]>comparingLong(count -> count[1])
+                .thenComparing(Comparator.<long[]>comparingLong(count -> count[0]).reversed());
+        PriorityQueue<long[]> top = new PriorityQueue<>(byCount);
+        counts.forEachValue(count -> {
+            top.add(count);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        });
+        List<long[]> ordered = new ArrayList<>(top);
+        ordered.sort(byCount.reversed());
+        List<Map<String, Long>> rows = new ArrayList<>();
+        for (long[] count : ordered) {
+            rows.add(row("account_id", count[0], "message_count", count[1]));
+        }
+        return new AnalyticsReport(current.takenAt, current.count, rows);
+    }
+
+    /**
+     * @param bucketSeconds the width of a bucket in seconds
+     * @param since         the earliest time_posted_epoch to count
+     * @param until         the latest time_posted_epoch to count
+     * @return rows of bucket_start and message_count for every bucket from the first to the last message in the range
+     * @throws IllegalArgumentException if that would be more than MAX_BUCKETS buckets
+     */
+    public AnalyticsReport postsPerBucket(long bucketSeconds, long since, long until) {
+        Snapshot current = snapshot;
+        long from = Math.max(since, current.firstEpoch);
+        long to = Math.min(until, current.lastEpoch);
+        List<Map<String, Long>> rows = new ArrayList<>();
+        if (from > to) {
+            return new AnalyticsReport(current.takenAt, current.count, rows);
+        }
+        long firstBucket = Math.floorDiv(from, bucketSeconds);
+        long buckets = Math.floorDiv(to, bucketSeconds) - firstBucket + 1;
+        if (buckets > MAX_BUCKETS) {
+            throw new IllegalArgumentException("More than " + MAX_BUCKETS + " buckets");
+        }
+        long[] counts = scan(current, (start, end) -> {
+            long[] partial = new long[(int) buckets];
+            for (int i = start; i < end; i++) {
+                long epoch = current.epochs[i];
+                if (epoch >= from && epoch <= to) {
+                    partial[(int) (Math.floorDiv(epoch, bucketSeconds) - firstBucket)]++;
+                }
+            }
+            return partial;
+        }, MessageAnalytics::sum);
+        for (int i = 0; i < counts.length; i++) {
+            rows.add(row("bucket_start", (firstBucket + i) * bucketSeconds, "message_count", counts[i]));
+        }
+        return new AnalyticsReport(current.takenAt, current.count, rows);
+    }
+
+    /**
+     * @param binWidth how many text lengths each bin covers
+     * @return rows of min_length, max_length (both inclusive) and message_count, from length 0 up to the longest
+     * message
+     */
+    public AnalyticsReport lengthHistogram(int binWidth) {
+        Snapshot current = snapshot;
+        int bins = current.maxLength / binWidth + 1;
+        long[] counts = scan(current, (from, to) -> {
+            long[] partial = new long[bins];
+            for (int i = from; i < to; i++) {
+                partial[current.lengths[i] / binWidth]++;
+            }
+            return partial;
+        }, MessageAnalytics::sum);
+        List<Map<String, Long>> rows = new ArrayList<>();
+        for (int i = 0; i < bins; i++) {
+            Map<String, Long> row = row("min_length", (long) i * binWidth, "max_length", (long) (i + 1) * binWidth - 1);
+            row.put("message_count", counts[i]);
+            rows.add(row);
+        }
+        return new AnalyticsReport(current.takenAt, current.count, rows);
+    }
+
+    private static long[] sum(long[] left, long[] right) {
+        Arrays.setAll(left, i -> left[i] + right[i]);
+        return left;
+    }
+
+    private static Map<String, Long> row(String firstColumn, long first, String secondColumn, long second) {
+        Map<String, Long> row = new LinkedHashMap<>();
+        row.put(firstColumn, first);
+        row.put(secondColumn, second);
+        return row;
+    }
+
+    /**
+     * Notes that the snapshot is out of date, so the next scheduled refresh takes a new one.
+     */
+    @Override
+    public void invalidate(int messageId, int accountId) {
+        changed = true;
+    }
+
+    /**
+     * Takes a new snapshot at once.
+     */
+    @Override
+    public void invalidateAll() {
+        refresh();
+    }
+}
@@ -0,0 +1,153 @@
+package Service;
+
+import Model.Message;
+import Util.AppConfig;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded, least recently used cache of messages by message_id, so repeated GET /messages/{message_id} requests do
+ * not hit the database. It holds at most service.message-cache.size messages and is kept correct across processes by
+ * the InvalidationBus.
+ *
+ * Messages named hot by pin() are kept apart from the LRU order, so however many other messages are read they are not
+ * evicted; only an invalidation or a new hot set without them removes them. The pinned messages are on top of the
+ * capacity.
+ */
+public class MessageCache implements InvalidationListener {
+
+    private final Map<Integer, Message> messages;
+    private final Map<Integer, Message> pinned = new HashMap<>();
+    private Set<Integer> hot = Set.of();
+    /**
+     * Counts invalidations, so a message read from the database is not cached if it changed while it was being read.
+     */
+    private long invalidations = 0;
+    /**
+     * message_id -> the number of its last invalidation, for the last RECENT invalidations, oldest first.
+     */
+    private final LinkedHashMap<Integer, Long> versions = new LinkedHashMap<>();
+    /**
+     * The number of the last invalidateAll().
+     */
+    private long clearedAt = 0;
+    /**
+     * How many invalidations back a fill can tell whether its message was among them.
+     */
+    private static final int RECENT = 1024;
+
+    /**
+     * @param capacity the most messages kept at once
+     */
+    public MessageCache(int capacity) {
+        // An access ordered LinkedHashMap drops its least recently used entry once it is over capacity.
+        this.messages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Message> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return a cache sized from the service.message-cache.size setting
+     */
+    public static MessageCache fromConfig() {
+        return new MessageCache(AppConfig.getInt("service.message-cache.size", 10000));
+    }
+
+    /**
+     * @param messageId the id of the message
+     * @return the cached message, or null if it is not cached
+     */
+    public synchronized Message get(int messageId) {
+        Message message = pinned.get(messageId);
+        return message != null ? message : messages.get(messageId);
+    }
+
+    /**
+     * Pins the hot messages that are cached; messages no longer hot go back to the LRU order. The others are pinned
+     * once they are put(), which the caller does by reading them.
+     *
+     * @param messageIds the new hot set
+     * @return the ids of the hot messages that are not cached
+     */
+    public synchronized Set<Integer> pin(Set<Integer> messageIds) {
+        hot = messageIds;
+        for (Iterator<Map.Entry<Integer, Message>> it = pinned.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Message> entry = it.next();
+            if (!hot.contains(entry.getKey())) {
+                it.remove();
+                messages.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Set<Integer> missing = new HashSet<>();
+        for (Integer messageId : hot) {
+            Message message = messages.remove(messageId);
+            if (message != null) {
+                pinned.put(messageId, message);
+            } else if (!pinned.containsKey(messageId)) {
+                missing.add(messageId);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Take a stamp before reading a message from the database and pass it to put().
+     *
+     * @return the current invalidation count
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Caches a message read from the database, unless that message was invalidated since the stamp was taken, in
+     * which case it may already be stale. Changes to other messages do not keep it out.
+     *
+     * @param message the message to cache
+     * @param stamp   the value of stamp() taken before the message was read
+     */
+    public synchronized void put(Message message, long stamp) {
+        if (changedSince(message.getMessage_id(), stamp)) {
+            return;
+        }
+        (hot.contains(message.getMessage_id()) ? pinned : messages).put(message.getMessage_id(), message);
+    }
+
+    /**
+     * @return whether the message may have been invalidated after the stamp: it was, everything was, or the
+     * invalidations since are too many to tell
+     */
+    private boolean changedSince(int messageId, long stamp) {
+        return stamp < clearedAt || invalidations - stamp > RECENT || versions.getOrDefault(messageId, 0L) > stamp;
+    }
+
+    @Override
+    public synchronized void invalidate(int messageId, int accountId) {
+        invalidations++;
+        // Removed first, so the id moves to the newest end
+        versions.remove(messageId);
+        versions.put(messageId, invalidations);
+        for (Iterator<Long> it = versions.values().iterator(); it.hasNext() && it.next() <= invalidations - RECENT; ) {
+            it.remove();
+        }
+        messages.remove(messageId);
+        pinned.remove(messageId);
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        invalidations++;
+        versions.clear();
+        clearedAt = invalidations;
+        messages.clear();
+        pinned.clear();
+    }
+}
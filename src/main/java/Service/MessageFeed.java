@@ -0,0 +1,297 @@
+package Service;
+
+import DAO.MessageStore;
+import Model.Message;
+import Model.MessageEvent;
+import Util.AppConfig;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A live feed of inserted, updated and deleted messages for clients that hold a connection open (Server-Sent Events
+ * or WebSocket) instead of polling.
+ *
+ * Changes arrive through the InvalidationBus, so changes made through other processes are pushed too. Each is read
+ * back from the store and appended to a ring buffer of the latest service.feed.capacity events; the same change can
+ * arrive twice (recorded by two processes, or polled before this process noted the row as its own), and an event
+ * identical to the last one for the same message is dropped. Every subscriber has its own
+ * cursor into the ring and is sent the events after it by a task of its own, so a writer only appends and never waits
+ * for a subscriber. The tasks run on service.feed.senders threads. A subscriber that falls so far behind that the ring
+ * has overwritten its next event is sent a resync event instead and moved to the newest event; it should reload the
+ * messages it shows. A subscriber whose connection fails is dropped, and so is one whose send has not returned after
+ * service.feed.send-timeout-ms: a client that stops reading would otherwise hold a sender thread until the server's
+ * idle timeout.
+ *
+ * Whether a change is an insert is decided by its message_id being above every id seen before, as new messages get the
+ * highest id (with db.shards above 1 ids interleave, and an insert can be reported as an update).
+ *
+ * Settings: service.feed.capacity, service.feed.senders, service.feed.send-timeout-ms.
+ */
+public class MessageFeed implements InvalidationListener {
+
+    /**
+     * Where a subscriber's events go; implemented by the SSE and WebSocket endpoints.
+     */
+    public interface Subscriber {
+        /**
+         * Sends an event; may block while the connection is slow.
+         *
+         * @throws Exception if the connection failed, which drops the subscriber
+         */
+        void send(MessageEvent event) throws Exception;
+
+        /**
+         * Closes the connection after the subscriber was dropped. Called once, possibly while a send is blocked on the
+         * connection, which it must make fail.
+         */
+        void close();
+    }
+
+    /**
+     * A subscriber and its position in the feed.
+     */
+    public class Subscription {
+        private final Subscriber subscriber;
+        private final int accountId;
+        /**
+         * The seq of the next event to send.
+         */
+        private long cursor;
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private final AtomicBoolean dropped = new AtomicBoolean(false);
+        private volatile boolean cancelled = false;
+        /**
+         * When the send in progress started, from System.nanoTime(), or 0 when none is.
+         */
+        private volatile long sendingSince = 0;
+
+        private Subscription(Subscriber subscriber, int accountId, long cursor) {
+            this.subscriber = subscriber;
+            this.accountId = accountId;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Stops sending events to the subscriber.
+         */
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+    }
+
+    private final MessageStore store;
+    private final MessageMetaIndex metaIndex;
+    private final MessageEvent[] ring;
+    /**
+     * The seq the next event gets; the ring holds the events from head - ring.length up to head - 1.
+     */
+    private long head = 1;
+    /**
+     * message_id -> its newest event still in the ring, to spot the same change delivered twice.
+     */
+    private final Map<Integer, MessageEvent> latest = new HashMap<>();
+    private int newestId;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+    private final long sendTimeoutNanos;
+
+    /**
+     * @param store         where changed messages are read back from
+     * @param metaIndex     tells the highest message_id so far
+     * @param capacity      how many events the ring keeps
+     * @param senders       how many threads send events to subscribers
+     * @param sendTimeoutMs how long a send may take before its subscriber is dropped
+     */
+    public MessageFeed(MessageStore store, MessageMetaIndex metaIndex, int capacity, int senders, long sendTimeoutMs) {
+        this.store = store;
+        this.metaIndex = metaIndex;
+        this.ring = new MessageEvent[capacity];
+        this.newestId = metaIndex.maxId();
+        this.senders = Executors.newFixedThreadPool(senders, runnable -> {
+            Thread thread = new Thread(runnable, "MessageFeed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MessageFeed-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, sendTimeoutMs / 4);
+        watchdog.scheduleAtFixedRate(this::dropStalled, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param store     where changed messages are read back from
+     * @param metaIndex tells the highest message_id so far
+     * @return a feed configured from the service.feed.* settings
+     */
+    public static MessageFeed fromConfig(MessageStore store, MessageMetaIndex metaIndex) {
+        return new MessageFeed(store, metaIndex, AppConfig.getInt("service.feed.capacity", 4096),
+                AppConfig.getInt("service.feed.senders", 16), AppConfig.getLong("service.feed.send-timeout-ms", 10000));
+    }
+
+    /**
+     * Starts sending events to a subscriber.
+     *
+     * @param subscriber where to send the events
+     * @param accountId  only send changes to this account's messages, or 0 for all
+     * @param afterSeq   send the events after this seq, e.g. the last one a reconnecting client saw, or -1 for only
+     *                   new events
+     * @return the subscription, to cancel when the connection closes
+     */
+    public Subscription subscribe(Subscriber subscriber, int accountId, long afterSeq) {
+        Subscription subscription;
+        synchronized (this) {
+            long from = afterSeq < 0 || afterSeq >= head ? head : afterSeq + 1;
+            subscription = new Subscription(subscriber, accountId, from);
+        }
+        subscriptions.add(subscription);
+        schedule(subscription);
+        return subscription;
+    }
+
+    /**
+     * Reads the changed message back from the store and appends the change to the ring, unless it is the same change
+     * as the last one for that message.
+     */
+    @Override
+    public void invalidate(int messageId, int accountId) {
+        Message message;
+        try {
+            message = store.getMessageById(messageId);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            MessageEvent previous = latest.get(messageId);
+            String type;
+            if (message == null) {
+                type = "delete";
+            } else if (messageId > newestId) {
+                type = "insert";
+                newestId = messageId;
+            } else {
+                type = "update";
+            }
+            if (previous != null && (message == null ? previous.message == null : message.equals(previous.message))) {
+                return;
+            }
+            int postedBy = message != null ? message.getPosted_by() : previous != null ? previous.posted_by : accountId;
+            MessageEvent event = new MessageEvent(head, type, messageId, postedBy, message);
+            int slot = (int) (head % ring.length);
+            MessageEvent overwritten = ring[slot];
+            if (overwritten != null && latest.get(overwritten.message_id) == overwritten) {
+                latest.remove(overwritten.message_id);
+            }
+            ring[slot] = event;
+            latest.put(messageId, event);
+            head++;
+        }
+        for (Subscription subscription : subscriptions) {
+            schedule(subscription);
+        }
+    }
+
+    /**
+     * Every message may have changed: the ring is kept, and inserts are counted from the highest id the meta index
+     * now holds.
+     */
+    @Override
+    public synchronized void invalidateAll() {
+        newestId = metaIndex.maxId();
+        latest.clear();
+    }
+
+    /**
+     * Starts a task sending a subscription its pending events, unless one is running already.
+     */
+    private void schedule(Subscription subscription) {
+        if (!subscription.cancelled && subscription.draining.compareAndSet(false, true)) {
+            senders.execute(() -> drain(subscription));
+        }
+    }
+
+    /**
+     * Sends a subscription every event after its cursor, and repeats until there are no more.
+     */
+    private void drain(Subscription subscription) {
+        try {
+            while (!subscription.cancelled) {
+                List<MessageEvent> pending = new ArrayList<>();
+                synchronized (this) {
+                    if (subscription.cursor < head - ring.length) {
+                        // The events the subscriber needs next are overwritten
+                        pending.add(new MessageEvent(head - 1, "resync", 0, 0, null));
+                        subscription.cursor = head;
+                    }
+                    for (; subscription.cursor < head; subscription.cursor++) {
+                        MessageEvent event = ring[(int) (subscription.cursor % ring.length)];
+                        if (subscription.accountId == 0 || event.posted_by == subscription.accountId) {
+                            pending.add(event);
+                        }
+                    }
+                }
+                if (pending.isEmpty()) {
+                    subscription.draining.set(false);
+                    // An event appended after the check above would otherwise wait for the next one
+                    synchronized (this) {
+                        if (subscription.cursor == head || !subscription.draining.compareAndSet(false, true)) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                try {
+                    for (MessageEvent event : pending) {
+                        subscription.sendingSince = System.nanoTime();
+                        subscription.subscriber.send(event);
+                    }
+                } finally {
+                    subscription.sendingSince = 0;
+                }
+            }
+        } catch (Exception e) {
+            drop(subscription);
+            subscription.draining.set(false);
+        }
+    }
+
+    /**
+     * Drops every subscriber whose send has taken longer than the send timeout. Closing the connection makes the send
+     * fail, which frees its sender thread.
+     */
+    private void dropStalled() {
+        long now = System.nanoTime();
+        for (Subscription subscription : subscriptions) {
+            long since = subscription.sendingSince;
+            if (since != 0 && now - since > sendTimeoutNanos) {
+                drop(subscription);
+            }
+        }
+    }
+
+    /**
+     * Stops sending events to a subscriber and closes its connection, once.
+     */
+    private void drop(Subscription subscription) {
+        subscription.cancel();
+        if (subscription.dropped.compareAndSet(false, true)) {
+            subscription.subscriber.close();
+        }
+    }
+}
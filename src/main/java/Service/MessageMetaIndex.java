@@ -0,0 +1,347 @@
+package Service;
+
+import DAO.MessageStore;
+import Model.Message;
+import Util.AppConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An off-heap index of the posted_by, time_posted_epoch and text length of every message, kept in a memory mapped
+ * file instead of on the heap so heap usage stays flat however many messages there are.
+ *
+ * The file holds one fixed-width 16 byte record per message_id, at offset message_id * 16:
+ *   int length of message_text + 1 (0 when there is no such message), int posted_by, long time_posted_epoch
+ * so a lookup is a single read and a scan is a sequential pass over the file with no Message objects created.
+ *
+ * The index is rebuilt from the MessageStore when it is created and after a reset, and stays current by listening to
+ * the InvalidationBus: each changed message is read back from the store, so changes made by other processes show up
+ * too. As it knows each record before and after a change, it tells its ChangeListeners exactly what changed; hearing
+ * of the same change twice (another process can record a change to a message this one already read back) reports no
+ * difference the second time. The file is only a scratch copy and is recreated on every start. Each process needs a file of its own (see
+ * ClusterMain): the index locks its file, and refuses to start on a file another process holds.
+ *
+ * Setting: service.meta-index.file.
+ */
+public class MessageMetaIndex implements InvalidationListener {
+
+    /**
+     * Told how a message's record changed. A posted_by of 0 means there was (or is) no message.
+     */
+    public interface ChangeListener {
+        void changed(int messageId, int oldPostedBy, long oldEpoch, int oldLength, int newPostedBy, long newEpoch, int newLength);
+    }
+
+    private static final int RECORD_BYTES = 16;
+    /**
+     * The file is mapped in chunks, since one mapping cannot exceed 2GB. 4M records (64MB) per chunk.
+     */
+    private static final int CHUNK_RECORDS = 1 << 22;
+
+    private final MessageStore store;
+    private final FileChannel channel;
+    /**
+     * Held as long as the process runs, so no other process truncates the file under this one's mappings.
+     */
+    private final FileLock fileLock;
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    /**
+     * The highest message_id in the index.
+     */
+    private volatile int maxId = 0;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Locks the index file, replaces any old contents and fills it from the store.
+     *
+     * @param file  where to keep the index
+     * @param store the messages to index
+     * @throws IllegalStateException if another process holds the file
+     */
+    public MessageMetaIndex(Path file, MessageStore store) {
+        this.store = store;
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            // Only truncate once the lock is held, since another process may have the file mapped
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.fileLock = lock(channel);
+            if (fileLock == null) {
+                channel.close();
+                throw new IllegalStateException("The message index " + file + " is used by another process. "
+                        + "Give every process its own service.meta-index.file.");
+            }
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the message index " + file, e);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * @return the lock of the whole file, or null if another process (or another index in this one) holds it
+     */
+    private static FileLock lock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param store the messages to index
+     * @return an index kept in the file named by the service.meta-index.file setting
+     */
+    public static MessageMetaIndex fromConfig(MessageStore store) {
+        return new MessageMetaIndex(Path.of(AppConfig.getString("service.meta-index.file", "./h2/message-meta.idx")), store);
+    }
+
+    /**
+     * @param messageId the id to look for
+     * @return true if a message with that id is in the index
+     */
+    public boolean contains(int messageId) {
+        MappedByteBuffer chunk = chunkFor(messageId);
+        return chunk != null && chunk.getInt(offsetOf(messageId)) != 0;
+    }
+
+    /**
+     * The index only learns of a message inserted by another process on the next InvalidationBus poll, but such a
+     * message always gets a higher id than every message already indexed. So a message missing from the index with an
+     * id at or below maxId() really does not exist (with db.shards above 1, ids from different shards interleave and
+     * this only holds per shard).
+     *
+     * @return the highest message_id in the index
+     */
+    public int maxId() {
+        return maxId;
+    }
+
+    /**
+     * @param messageId the id of an indexed message
+     * @return its posted_by, or 0 if it is not in the index
+     */
+    public int postedBy(int messageId) {
+        return contains(messageId) ? chunkFor(messageId).getInt(offsetOf(messageId) + 4) : 0;
+    }
+
+    /**
+     * @param messageId the id of an indexed message
+     * @return the length of its message_text, or 0 if it is not in the index
+     */
+    public int textLength(int messageId) {
+        return contains(messageId) ? chunkFor(messageId).getInt(offsetOf(messageId)) - 1 : 0;
+    }
+
+    /**
+     * @param listener told of every change to a record made by invalidate(); rebuilds are not reported
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param messageId the id of an indexed message
+     * @return its time_posted_epoch, or 0 if it is not in the index
+     */
+    public long timePosted(int messageId) {
+        return contains(messageId) ? chunkFor(messageId).getLong(offsetOf(messageId) + 8) : 0;
+    }
+
+    /**
+     * @param accountId the posted_by to look for
+     * @return the ids of every message posted by that account, in ascending order
+     */
+    public int[] idsForAccount(int accountId) {
+        return scan(accountId, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param since the earliest time_posted_epoch to include
+     * @param until the latest time_posted_epoch to include
+     * @return the ids of every message posted in that range, in ascending order
+     */
+    public int[] idsPostedBetween(long since, long until) {
+        return scan(0, since, until);
+    }
+
+    /**
+     * @param afterId the message_id to start after
+     * @param limit   the most ids to return
+     * @return the ids of the first messages with a message_id above afterId, in ascending order
+     */
+    public int[] idsAfter(int afterId, int limit) {
+        int[] ids = new int[Math.min(limit, 16)];
+        int count = 0;
+        int last = maxId;
+        for (int messageId = Math.max(afterId, 0) + 1; messageId <= last && count < limit; messageId++) {
+            MappedByteBuffer chunk = chunkFor(messageId);
+            if (chunk.getInt(offsetOf(messageId)) == 0) {
+                continue;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, Math.min(limit, count * 2));
+            }
+            ids[count++] = messageId;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Scans the index in message_id order.
+     *
+     * @param accountId the posted_by to keep, or 0 for any
+     * @param since     the earliest time_posted_epoch to keep
+     * @param until     the latest time_posted_epoch to keep
+     * @return the ids of the matching messages
+     */
+    private int[] scan(int accountId, long since, long until) {
+        int[] ids = new int[16];
+        int count = 0;
+        int last = maxId;
+        for (int messageId = 1; messageId <= last; messageId++) {
+            MappedByteBuffer chunk = chunkFor(messageId);
+            int offset = offsetOf(messageId);
+            if (chunk.getInt(offset) == 0) {
+                continue;
+            }
+            if (accountId != 0 && chunk.getInt(offset + 4) != accountId) {
+                continue;
+            }
+            long epoch = chunk.getLong(offset + 8);
+            if (epoch < since || epoch > until) {
+                continue;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = messageId;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Adds or replaces the record of a message. The length is written last, so readers never see a half written
+     * record as present.
+     *
+     * @param message the message to index
+     */
+    public synchronized void put(Message message) {
+        int messageId = message.getMessage_id();
+        MappedByteBuffer chunk = growFor(messageId);
+        int offset = offsetOf(messageId);
+        chunk.putInt(offset, 0);
+        chunk.putInt(offset + 4, message.getPosted_by());
+        chunk.putLong(offset + 8, message.getTime_posted_epoch());
+        chunk.putInt(offset, message.getMessage_text().length() + 1);
+        if (messageId > maxId) {
+            maxId = messageId;
+        }
+    }
+
+    /**
+     * @param messageId the id of a message that no longer exists
+     */
+    public synchronized void remove(int messageId) {
+        MappedByteBuffer chunk = chunkFor(messageId);
+        if (chunk != null) {
+            chunk.putInt(offsetOf(messageId), 0);
+        }
+    }
+
+    /**
+     * Reads the changed message back from the store, updates or removes its record and tells the ChangeListeners. The
+     * read is made under the same lock as the update, so a read that raced a later change cannot be applied after it.
+     */
+    @Override
+    public void invalidate(int messageId, int accountId) {
+        synchronized (this) {
+            Message message;
+            try {
+                message = store.getMessageById(messageId);
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            int oldPostedBy = postedBy(messageId);
+            long oldEpoch = timePosted(messageId);
+            int oldLength = textLength(messageId);
+            if (message == null) {
+                remove(messageId);
+            } else {
+                put(message);
+            }
+            int newPostedBy = postedBy(messageId);
+            long newEpoch = timePosted(messageId);
+            int newLength = textLength(messageId);
+            if (oldPostedBy != newPostedBy || oldEpoch != newEpoch || oldLength != newLength) {
+                for (ChangeListener listener : listeners) {
+                    listener.changed(messageId, oldPostedBy, oldEpoch, oldLength, newPostedBy, newEpoch, newLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears every record and indexes every message in the store again, streamed from the store so the messages are
+     * never all on the heap at once. The file is not truncated, since readers may still be using the mapped chunks.
+     */
+    @Override
+    public synchronized void invalidateAll() {
+        for (int messageId = 1; messageId <= maxId; messageId++) {
+            chunkFor(messageId).putInt(offsetOf(messageId), 0);
+        }
+        maxId = 0;
+        store.forEachMessage(this::put);
+    }
+
+    private static int offsetOf(int messageId) {
+        return (messageId % CHUNK_RECORDS) * RECORD_BYTES;
+    }
+
+    /**
+     * @return the chunk holding the record of a message_id, or null if the file does not reach that far
+     */
+    private MappedByteBuffer chunkFor(int messageId) {
+        MappedByteBuffer[] current = chunks;
+        int chunk = messageId / CHUNK_RECORDS;
+        return messageId > 0 && chunk < current.length ? current[chunk] : null;
+    }
+
+    /**
+     * Maps more chunks of the file until it reaches a message_id. Mapping past the end of the file extends it, and the
+     * new bytes read as zero, meaning no message.
+     */
+    private MappedByteBuffer growFor(int messageId) {
+        int chunk = messageId / CHUNK_RECORDS;
+        MappedByteBuffer[] current = chunks;
+        if (chunk >= current.length) {
+            MappedByteBuffer[] grown = Arrays.copyOf(current, chunk + 1);
+            try {
+                for (int i = current.length; i <= chunk; i++) {
+                    grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * CHUNK_RECORDS * RECORD_BYTES,
+                            (long) CHUNK_RECORDS * RECORD_BYTES);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            chunks = grown;
+            current = grown;
+        }
+        return current[chunk];
+    }
+}
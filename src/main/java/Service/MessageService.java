@@ -1,16 +1,133 @@
 package Service;
 
+import DAO.AccountStore;
 import DAO.MessageDAO;
+import DAO.MessageStore;
+import DAO.ShardRouter;
+import Model.AnalyticsReport;
+import Model.AuthoredMessage;
+import Model.HotMessage;
 import Model.Message;
+import Model.MessageField;
+import Model.MessageStats;
+import Model.TrendingTerm;
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import io.javalin.http.Context;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class MessageService {
     private static MessageDAO messageDAO;
 
+    /**
+     * Where messages are stored, chosen with the storage.engine setting.
+     */
+    private static final MessageStore store = MessageStore.fromConfig();
+
+    /**
+     * Messages by id, kept correct across API processes by the InvalidationBus.
+     */
+    private static final MessageCache messageCache = MessageCache.fromConfig();
+
+    /**
+     * Encoded JSON bodies of single messages and account timelines, kept correct by the InvalidationBus.
+     */
+    private static final ResponseCache responseCache = ResponseCache.fromConfig();
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Writes Messages through a filter that keeps the fields asked for, see toJson.
+     */
+    private static final ObjectMapper projectingMapper = new ObjectMapper().addMixIn(Message.class, MessageFieldFilter.class);
+
+    /**
+     * Puts the filter on Message without changing the class.
+     */
+    @JsonFilter(MessageFieldFilter.NAME)
+    private abstract static class MessageFieldFilter {
+        static final String NAME = "messageFields";
+    }
+
+    /**
+     * posted_by, time_posted_epoch and text length of every message, off the heap.
+     */
+    private static final MessageMetaIndex metaIndex = MessageMetaIndex.fromConfig(store);
+
+    /**
+     * The message_ids of each account.
+     */
+    private static final AccountMessageIndex accountIndex = new AccountMessageIndex(metaIndex);
+
+    /**
+     * Hour buckets of time_posted_epoch -> message_id ranges.
+     */
+    private static final TimeBucketIndex timeIndex = new TimeBucketIndex(metaIndex);
+
+    /**
+     * Full-text index of message_text.
+     */
+    private static final SearchIndex searchIndex = SearchIndex.fromConfig(store);
+
+    /**
+     * Message counts, post times and text lengths per account and overall.
+     */
+    private static final MessageStatistics statistics = new MessageStatistics(metaIndex, accountIndex, timeIndex);
+
+    /**
+     * Reports over a columnar snapshot of every message.
+     */
+    private static final MessageAnalytics analytics = MessageAnalytics.fromConfig(metaIndex);
+
+    /**
+     * The terms used most in messages posted over the last minutes.
+     */
+    private static final TrendingTerms trending = TrendingTerms.fromConfig();
+
+    /**
+     * The messages read most often, pinned in messageCache.
+     */
+    private static final HotMessages hotMessages = HotMessages.fromConfig(MessageService::pinHotMessages);
+
+    /**
+     * Inserted, updated and deleted messages, pushed to live subscribers.
+     */
+    private static final MessageFeed feed = MessageFeed.fromConfig(store, metaIndex);
+
+    /**
+     * Long-poll requests waiting for a newer message, woken by insertMessage.
+     */
+    private static final MessageWaiters waiters = MessageWaiters.fromConfig(MessageService::readMessagesAfter);
+
+    /**
+     * One Author per account, to add to listings with expand=author.
+     */
+    private static final AuthorDictionary authors = AuthorDictionary.fromConfig(AccountStore.fromConfig());
+
+    static {
+        InvalidationBus.addListener(messageCache);
+        InvalidationBus.addListener(responseCache);
+        InvalidationBus.addListener(metaIndex);
+        // After metaIndex, which accountIndex reads
+        InvalidationBus.addListener(accountIndex);
+        InvalidationBus.addListener(timeIndex);
+        InvalidationBus.addListener(searchIndex);
+        InvalidationBus.addListener(statistics);
+        InvalidationBus.addListener(analytics);
+        InvalidationBus.addListener(feed);
+    }
+
     /**
      * no-args constructor for creating a new AuthorService with a new AuthorDAO.
      * There is no need to change this constructor.
@@ -26,7 +143,13 @@ public class MessageService {
      * @return The inserted message object with the generated message_id.
      */
     public static Message insertMessage(Message message) {
-        return MessageDAO.insertMessage(message);
+        Message inserted = store.insertMessage(message);
+        if (inserted != null) {
+            InvalidationBus.publish(inserted.getMessage_id(), inserted.getPosted_by(), "insert");
+            trending.add(inserted.getMessage_text());
+            waiters.inserted(inserted.getMessage_id());
+        }
+        return inserted;
     }
 
 
@@ -36,9 +159,17 @@ public class MessageService {
      * @param ctx        The context of the application.
      * @param message_id The ID of the message to delete.
      * @return true if the message was successfully deleted, false otherwise.
+     * @throws SQLException if there is an error reading the message before deleting it.
      */
-    public static boolean deleteMessage(Context ctx, int message_id) {
-        boolean isDeleted = MessageDAO.deleteMessage(message_id);
+    public static boolean deleteMessage(Context ctx, int message_id) throws SQLException {
+        Message existing = getMessageById(ctx, message_id);
+        if (existing == null && !mayExist(message_id)) {
+            return false;
+        }
+        boolean isDeleted = store.deleteMessage(message_id);
+        if (isDeleted) {
+            InvalidationBus.publish(message_id, existing == null ? 0 : existing.getPosted_by(), "delete");
+        }
         return isDeleted;
     }
 
@@ -51,18 +182,59 @@ public class MessageService {
      * @throws SQLException if there is an error executing the SQL query
      */
     public static Message getMessageById(Context ctx, int id) throws SQLException {
-        return messageDAO.getMessageById(id);
+        Message cached = messageCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        if (!mayExist(id)) {
+            return null;
+        }
+        long stamp = messageCache.stamp();
+        Message message = store.getMessageById(id);
+        if (message != null) {
+            messageCache.put(message, stamp);
+        }
+        return message;
     }
 
 
+    /**
+     * Answers from the meta index whether a message could exist, so lookups of missing ids skip the store. Ids above
+     * the highest indexed id may have just been inserted by another process, and with several shards ids are not
+     * allocated in order, so in those cases the store has to be asked.
+     *
+     * @param messageId the id to check
+     * @return false if the message certainly does not exist
+     */
+    private static boolean mayExist(int messageId) {
+        return metaIndex.contains(messageId) || messageId > metaIndex.maxId() || ShardRouter.shardCount() > 1;
+    }
+
+    /**
+     * @param accountId the posted_by to look for
+     * @return the ids of the account's messages, in ascending order
+     */
+    public static int[] getMessageIdsForUser(int accountId) {
+        return accountIndex.idsFor(accountId);
+    }
+
+    /**
+     * @param since the earliest time_posted_epoch to include
+     * @param until the latest time_posted_epoch to include
+     * @return the ids of the messages posted in that range, in ascending order, read from the meta index
+     */
+    public static int[] getMessageIdsPostedBetween(long since, long until) {
+        return metaIndex.idsPostedBetween(since, until);
+    }
+
     /**
      * Retrieves all messages from the message table
      *
+     * @param fields the fields to read, see MessageField
      * @return a List of all messages in the message table, or an empty List if there are none
      */
-    public static List<Message> getAllMessages() {
-        MessageDAO messageDAO = new MessageDAO();
-        List<Message> messages = messageDAO.getAllMessages();
+    public static List<Message> getAllMessages(Set<MessageField> fields) {
+        List<Message> messages = store.getAllMessages(fields);
         if (messages == null) {
             messages = new ArrayList<>();
         }
@@ -77,10 +249,18 @@ public class MessageService {
      * @param messageId the ID of the message to be updated
      * @param newText   the new text for the message
      * @return true if the update was successful, false otherwise
+     * @throws SQLException if there is an error reading the message before the update
      */
-    public static boolean updateMessageText(Context ctx, int messageId, String newText) {
-        MessageDAO messageDAO = new MessageDAO();
-        return messageDAO.updateMessageText(messageId, newText);
+    public static boolean updateMessageText(Context ctx, int messageId, String newText) throws SQLException {
+        Message existing = getMessageById(ctx, messageId);
+        if (existing == null && !mayExist(messageId)) {
+            return false;
+        }
+        boolean isUpdated = store.updateMessageText(messageId, newText);
+        if (isUpdated) {
+            InvalidationBus.publish(messageId, existing == null ? 0 : existing.getPosted_by(), "update");
+        }
+        return isUpdated;
     }
 
 
@@ -89,17 +269,299 @@ public class MessageService {
      *
      * @param ctx         the context
      * @param accountUser the user for whom to retrieve messages
+     * @param fields      the fields to read, see MessageField
      * @return a list of messages for the specified user
      * @throws SQLException if there is an error retrieving messages from the database
      */
-    public static List<Message> getAllMessagesForUser(Context ctx, int accountUser) throws SQLException {
-        MessageDAO messageDAO = new MessageDAO();
-        List<Message> messages = messageDAO.retriveAllMessagesForUser(accountUser);
+    public static List<Message> getAllMessagesForUser(Context ctx, int accountUser, Set<MessageField> fields) throws SQLException {
+        // Look the ids up in the index, then fetch them all at once
+        int[] ids = accountIndex.idsFor(accountUser);
+        List<Message> messages = ids.length == 0 ? new ArrayList<>() : store.getMessagesByIds(ids, fields);
+        if (messages == null) {
+            messages = new ArrayList<>();
+        }
+        return messages;
+    }
+
+
+    /**
+     * Retrieves a message as its JSON body, encoded once and then served from the response cache until the message
+     * changes.
+     *
+     * @param ctx the context of the application
+     * @param id  the ID of the message to retrieve
+     * @return the JSON of the message, or null if the message does not exist
+     * @throws SQLException            if there is an error reading the message
+     * @throws JsonProcessingException if the message cannot be encoded
+     */
+    public static ResponseCache.Body getMessageJson(Context ctx, int id) throws SQLException, JsonProcessingException {
+        String key = ResponseCache.messageKey(id);
+        ResponseCache.Body cached = responseCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = responseCache.stamp();
+        Message message = getMessageById(ctx, id);
+        if (message == null) {
+            return null;
+        }
+        return responseCache.put(key, objectMapper.writeValueAsBytes(message), stamp);
+    }
+
+    /**
+     * Retrieves all messages of an account as one JSON body, encoded once and then served from the response cache
+     * until one of the account's messages changes.
+     *
+     * @param ctx         the context of the application
+     * @param accountUser the user whose messages to retrieve
+     * @return the JSON list of the user's messages
+     * @throws SQLException            if there is an error reading the messages
+     * @throws JsonProcessingException if the messages cannot be encoded
+     */
+    public static ResponseCache.Body getAllMessagesForUserJson(Context ctx, int accountUser) throws SQLException, JsonProcessingException {
+        String key = ResponseCache.timelineKey(accountUser);
+        ResponseCache.Body cached = responseCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = responseCache.stamp();
+        return responseCache.put(key, objectMapper.writeValueAsBytes(getAllMessagesForUser(ctx, accountUser, MessageField.ALL)), stamp);
+    }
+
+    /**
+     * Adds its author to every message; the authors come from the AuthorDictionary, with the unknown ones read in one
+     * batch, never one query per message.
+     *
+     * @param messages messages with their posted_by read
+     * @return the messages in the same order, each with its author
+     */
+    public static List<AuthoredMessage> withAuthors(List<Message> messages) {
+        return authors.withAuthors(messages);
+    }
+
+    /**
+     * Encodes messages as JSON with only some of their fields.
+     *
+     * @param value  a Message, an AuthoredMessage or a List of either
+     * @param fields the fields to write, see MessageField
+     * @return the JSON
+     * @throws JsonProcessingException if the messages cannot be encoded
+     */
+    public static byte[] toJson(Object value, Set<MessageField> fields) throws JsonProcessingException {
+        Set<String> names = new HashSet<>();
+        for (MessageField field : fields) {
+            names.add(field.column());
+        }
+        FilterProvider filter = new SimpleFilterProvider()
+                .addFilter(MessageFieldFilter.NAME, SimpleBeanPropertyFilter.filterOutAllExcept(names));
+        return projectingMapper.writer(filter).writeValueAsBytes(value);
+    }
+
+    /**
+     * Searches message_text, see SearchIndex for the query syntax.
+     *
+     * @param query  the search query
+     * @param offset how many matches to skip
+     * @param limit  the most matches to return
+     * @return the matching messages, best match first
+     * @throws SQLException if there is an error reading the matching messages
+     */
+    public static List<Message> searchMessages(String query, int offset, int limit) throws SQLException {
+        return searchIndex.search(query, offset, limit);
+    }
+
+    /**
+     * Retrieves the messages posted in a time range. The time bucket directory narrows the search to the ids posted
+     * in the hours the range covers.
+     *
+     * @param since the earliest time_posted_epoch to include
+     * @param until  the latest time_posted_epoch to include
+     * @param fields the fields to read, see MessageField
+     * @return the messages posted in the range, in message_id order
+     * @throws SQLException if there is an error reading the messages
+     */
+    public static List<Message> getMessagesPostedBetween(long since, long until, Set<MessageField> fields) throws SQLException {
+        int[] range = timeIndex.idRange(since, until);
+        if (range == null) {
+            return new ArrayList<>();
+        }
+        return store.getMessagesPostedBetween(since, until, range[0], range[1], fields);
+    }
+
+    /**
+     * Retrieves the messages of one account posted in a time range: the account's ids are filtered by the posting
+     * time kept in the meta index, and only the matches are fetched.
+     *
+     * @param accountUser the user whose messages to retrieve
+     * @param since       the earliest time_posted_epoch to include
+     * @param until       the latest time_posted_epoch to include
+     * @param fields      the fields to read, see MessageField
+     * @return the user's messages posted in the range, in message_id order
+     * @throws SQLException if there is an error reading the messages
+     */
+    public static List<Message> getMessagesForUserPostedBetween(int accountUser, long since, long until, Set<MessageField> fields) throws SQLException {
+        int[] ids = accountIndex.idsFor(accountUser);
+        int count = 0;
+        for (int messageId : ids) {
+            long posted = metaIndex.timePosted(messageId);
+            if (metaIndex.contains(messageId) && posted >= since && posted <= until) {
+                ids[count++] = messageId;
+            }
+        }
+        return count == 0 ? new ArrayList<>() : store.getMessagesByIds(Arrays.copyOf(ids, count), fields);
+    }
+
+    /**
+     * Retrieves the messages with a message_id above sinceId, or waits for one to be inserted. The ids come from the
+     * meta index, so only the new messages are fetched.
+     *
+     * @param sinceId    the highest message_id the caller has
+     * @param limit      the most messages to return
+     * @param waitMillis how long to wait for a new message when there is none yet, or 0 not to wait
+     * @return a future of the messages, in message_id order; empty if the wait ended with none inserted
+     * @throws SQLException if there is an error reading the messages
+     */
+    public static CompletableFuture<List<Message>> getMessagesAfter(int sinceId, int limit, long waitMillis) throws SQLException {
+        if (waitMillis <= 0) {
+            return CompletableFuture.completedFuture(readMessagesAfter(sinceId, limit));
+        }
+        // Wait before reading, so an insert between the read and the wait cannot be missed
+        CompletableFuture<List<Message>> inserted = waiters.await(sinceId, limit, waitMillis);
+        List<Message> messages = readMessagesAfter(sinceId, limit);
+        if (!messages.isEmpty()) {
+            inserted.complete(messages);
+            return CompletableFuture.completedFuture(messages);
+        }
+        return inserted;
+    }
+
+    /**
+     * @return the longest getMessagesAfter may wait
+     */
+    public static long getLongPollMaxWaitMillis() {
+        return waiters.maxWaitMillis();
+    }
+
+    /**
+     * @return the first messages with a message_id above sinceId, in message_id order
+     */
+    private static List<Message> readMessagesAfter(int sinceId, int limit) throws SQLException {
+        int[] ids = metaIndex.idsAfter(sinceId, limit);
+        List<Message> messages = ids.length == 0 ? new ArrayList<>() : store.getMessagesByIds(ids);
         if (messages == null) {
             messages = new ArrayList<>();
         }
         return messages;
     }
 
+    /**
+     * Reads the statistics of an account's messages from counters kept up to date by every change.
+     *
+     * @param accountId the user whose statistics to read
+     * @return the message count, first and last post time and average text length of the user's messages
+     */
+    public static MessageStats getStatsForAccount(int accountId) {
+        return statistics.forAccount(accountId);
+    }
+
+    /**
+     * Reads the statistics of all messages from counters kept up to date by every change.
+     *
+     * @return the message count, first and last post time and average text length of all messages
+     */
+    public static MessageStats getGlobalStats() {
+        return statistics.global();
+    }
+
+    /**
+     * @param limit the most accounts to list
+     * @return the accounts with the most messages, from the latest analytics snapshot
+     */
+    public static AnalyticsReport getTopPosters(int limit) {
+        return analytics.topPosters(limit);
+    }
+
+    /**
+     * @param bucketSeconds the width of a bucket in seconds
+     * @param since         the earliest time_posted_epoch to count
+     * @param until         the latest time_posted_epoch to count
+     * @return the number of messages posted in each bucket, from the latest analytics snapshot
+     * @throws IllegalArgumentException if the range holds more than MessageAnalytics.MAX_BUCKETS buckets
+     */
+    public static AnalyticsReport getPostsPerBucket(long bucketSeconds, long since, long until) {
+        return analytics.postsPerBucket(bucketSeconds, since, until);
+    }
+
+    /**
+     * @param binWidth how many text lengths each bin covers
+     * @return the number of messages in each bin of text length, from the latest analytics snapshot
+     */
+    public static AnalyticsReport getLengthHistogram(int binWidth) {
+        return analytics.lengthHistogram(binWidth);
+    }
+
+    /**
+     * @param lastMinutes how many of the latest minutes to look at, at most getTrendingWindowMinutes()
+     * @param limit       the most terms to return
+     * @return the terms used in the most messages posted in those minutes, most used first
+     */
+    public static List<TrendingTerm> getTrendingTerms(int lastMinutes, int limit) {
+        return trending.top(lastMinutes, limit);
+    }
+
+    /**
+     * @return the most minutes getTrendingTerms can look back
+     */
+    public static int getTrendingWindowMinutes() {
+        return trending.windowMinutes();
+    }
+
+    /**
+     * Pins a new hot set in the message cache, reading the hot messages it does not hold yet in one batch so they
+     * are pinned now rather than when next read.
+     */
+    private static void pinHotMessages(Set<Integer> messageIds) {
+        long stamp = messageCache.stamp();
+        Set<Integer> missing = messageCache.pin(messageIds);
+        if (missing.isEmpty()) {
+            return;
+        }
+        int[] ids = missing.stream().mapToInt(Integer::intValue).sorted().toArray();
+        try {
+            for (Message message : store.getMessagesByIds(ids)) {
+                messageCache.put(message, stamp);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
 
+    /**
+     * Counts a read of a message by a client, so messages read often stay cached.
+     *
+     * @param messageId the id of the message read
+     */
+    public static void recordMessageRead(int messageId) {
+        hotMessages.record(messageId);
+    }
+
+    /**
+     * @param limit the most messages to list
+     * @return the messages read most often recently, most read first
+     */
+    public static List<HotMessage> getHotMessages(int limit) {
+        return hotMessages.top(limit);
+    }
+
+    /**
+     * Starts pushing message changes to a live subscriber.
+     *
+     * @param subscriber where to send the changes
+     * @param accountId  only send changes to this account's messages, or 0 for all
+     * @param afterSeq   send the changes after this seq, or -1 for only new ones
+     * @return the subscription, to cancel when the subscriber goes away
+     */
+    public static MessageFeed.Subscription subscribeToFeed(MessageFeed.Subscriber subscriber, int accountId, long afterSeq) {
+        return feed.subscribe(subscriber, accountId, afterSeq);
+    }
 }
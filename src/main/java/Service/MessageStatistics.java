@@ -0,0 +1,175 @@
+package Service;
+
+import Model.MessageStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Message count, first and last post time and total text length of every account and of all messages, kept as
+ * counters that every insert, update and delete adjusts, so reading them never runs an aggregate query.
+ *
+ * The counts and lengths are LongAdders, which spread concurrent updates over several cells instead of contending on
+ * one. The first and last post time are one immutable pair, worked out aside and published whole, so a reader never
+ * sees one of them reset; a new post time is published before the count that includes it. The counters follow the MessageMetaIndex as one of its ChangeListeners: it reports each change exactly once
+ * with the values before and after, however often the InvalidationBus delivers it, and changes made by other processes
+ * arrive the same way. Deleting an account's first or last message makes its first or last post time be worked out
+ * again from the AccountMessageIndex, or for all messages from the TimeBucketIndex.
+ *
+ * Everything is rebuilt from the meta index when it is created and after a reset, so it must be registered on the
+ * InvalidationBus after the MessageMetaIndex.
+ */
+public class MessageStatistics implements MessageMetaIndex.ChangeListener, InvalidationListener {
+
+    /**
+     * The counters of one account, or of all messages.
+     */
+    private static class Counters {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalLength = new LongAdder();
+        /**
+         * The first and last post time, or NO_RANGE. Only written with the meta index locked.
+         */
+        volatile long[] range = NO_RANGE;
+
+        /**
+         * Widens the range to a post time, then counts the message.
+         */
+        void add(long epoch, int length) {
+            include(epoch);
+            totalLength.add(length);
+            count.increment();
+        }
+
+        void include(long epoch) {
+            long[] current = range;
+            if (epoch < current[0] || epoch > current[1]) {
+                range = new long[]{Math.min(current[0], epoch), Math.max(current[1], epoch)};
+            }
+        }
+
+        MessageStats toStats(Integer accountId) {
+            long messages = count.sum();
+            long[] current = range;
+            if (messages <= 0 || current == NO_RANGE) {
+                return new MessageStats(accountId, 0, null, null, 0);
+            }
+            return new MessageStats(accountId, messages, current[0], current[1], (double) totalLength.sum() / messages);
+        }
+    }
+
+    private static final long[] NO_RANGE = {Long.MAX_VALUE, Long.MIN_VALUE};
+
+    private final MessageMetaIndex metaIndex;
+    private final AccountMessageIndex accountIndex;
+    private final TimeBucketIndex timeIndex;
+    private final Map<Integer, Counters> accounts = new ConcurrentHashMap<>();
+    private volatile Counters global = new Counters();
+
+    /**
+     * @param metaIndex    the messages to count, which then reports every change here
+     * @param accountIndex finds an account's remaining messages when its first or last one is deleted
+     * @param timeIndex    finds the remaining first or last message when the first or last one is deleted
+     */
+    public MessageStatistics(MessageMetaIndex metaIndex, AccountMessageIndex accountIndex, TimeBucketIndex timeIndex) {
+        this.metaIndex = metaIndex;
+        this.accountIndex = accountIndex;
+        this.timeIndex = timeIndex;
+        invalidateAll();
+        metaIndex.addChangeListener(this);
+    }
+
+    /**
+     * @param accountId the posted_by to look for
+     * @return the statistics of the account's messages; an account without messages has a count of 0
+     */
+    public MessageStats forAccount(int accountId) {
+        Counters counters = accounts.get(accountId);
+        return counters == null ? new MessageStats(accountId, 0, null, null, 0) : counters.toStats(accountId);
+    }
+
+    /**
+     * @return the statistics of all messages
+     */
+    public MessageStats global() {
+        return global.toStats(null);
+    }
+
+    /**
+     * Takes the old values of a message off its account's and the global counters and adds the new ones. Runs with
+     * the meta index locked, so changes are applied one at a time.
+     */
+    @Override
+    public void changed(int messageId, int oldPostedBy, long oldEpoch, int oldLength, int newPostedBy, long newEpoch, int newLength) {
+        Counters all = global;
+        if (oldPostedBy != 0) {
+            Counters counters = accounts.computeIfAbsent(oldPostedBy, accountId -> new Counters());
+            counters.count.decrement();
+            counters.totalLength.add(-oldLength);
+            all.count.decrement();
+            all.totalLength.add(-oldLength);
+        }
+        if (newPostedBy != 0) {
+            accounts.computeIfAbsent(newPostedBy, accountId -> new Counters()).add(newEpoch, newLength);
+            all.add(newEpoch, newLength);
+        }
+        // A text update keeps the post time, so only a removed or moved message can take away a first or last post
+        if (oldPostedBy != 0 && (oldPostedBy != newPostedBy || oldEpoch != newEpoch)) {
+            Counters counters = accounts.get(oldPostedBy);
+            if (oldEpoch == counters.range[0] || oldEpoch == counters.range[1]) {
+                recomputeAccount(oldPostedBy, counters);
+            }
+            if (oldEpoch == all.range[0] || oldEpoch == all.range[1]) {
+                long[] range = timeIndex.firstAndLastPosted();
+                all.range = range == null ? NO_RANGE : new long[]{range[0], range[1]};
+            }
+        }
+    }
+
+    /**
+     * Works out an account's first and last post time again from the messages it has left.
+     */
+    private void recomputeAccount(int accountId, Counters counters) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int messageId : accountIndex.idsFor(accountId)) {
+            // The account index has not heard of the change yet, so it still lists the removed message
+            if (metaIndex.contains(messageId) && metaIndex.postedBy(messageId) == accountId) {
+                long epoch = metaIndex.timePosted(messageId);
+                first = Math.min(first, epoch);
+                last = Math.max(last, epoch);
+            }
+        }
+        counters.range = first == Long.MAX_VALUE ? NO_RANGE : new long[]{first, last};
+    }
+
+    /**
+     * Changes reach the counters through the meta index, which reports each one only once.
+     */
+    @Override
+    public void invalidate(int messageId, int accountId) {
+    }
+
+    /**
+     * Counts every message in the meta index again, with the meta index locked so no change is counted twice or
+     * missed.
+     */
+    @Override
+    public void invalidateAll() {
+        synchronized (metaIndex) {
+            Counters all = new Counters();
+            accounts.clear();
+            int maxId = metaIndex.maxId();
+            for (int messageId = 1; messageId <= maxId; messageId++) {
+                if (metaIndex.contains(messageId)) {
+                    long epoch = metaIndex.timePosted(messageId);
+                    int length = metaIndex.textLength(messageId);
+                    all.add(epoch, length);
+                    accounts.computeIfAbsent(metaIndex.postedBy(messageId), accountId -> new Counters()).add(epoch, length);
+                }
+            }
+            global = all;
+        }
+    }
+}
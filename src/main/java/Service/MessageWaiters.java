@@ -0,0 +1,218 @@
+package Service;
+
+import Model.Message;
+import Util.AppConfig;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-poll requests waiting for a message newer than the ones they have, for GET /messages/changes.
+ *
+ * A waiting request holds no thread: it is a future kept by the message_id it waits to see passed, which
+ * MessageService.insertMessage completes when it inserts a higher id, and a timer completes when the wait is over. The
+ * waiters are kept sorted by that id, so an insert only touches the waiters it wakes. The new messages are read once per
+ * insert, on one of service.long-poll.readers threads rather than the thread of the insert, and every woken request is
+ * given the part of them after its own id; a request whose part was cut short by the limit of the read reads on its own.
+ *
+ * Inserts made through other processes do not wake a waiter; they are found by the read made when its wait is over.
+ * When service.long-poll.max-waiters requests are waiting already, a new one is answered at once instead of waiting.
+ *
+ * Settings: service.long-poll.*.
+ */
+public class MessageWaiters {
+
+    /**
+     * Reads the first messages with a message_id above sinceId, in message_id order.
+     */
+    public interface Reader {
+        List<Message> read(int sinceId, int limit) throws SQLException;
+    }
+
+    /**
+     * A waiting request. Equal only to itself, so a set of them finds one in constant time.
+     */
+    private static class Waiter {
+        final int sinceId;
+        final int limit;
+        final CompletableFuture<List<Message>> future = new CompletableFuture<>();
+
+        Waiter(int sinceId, int limit) {
+            this.sinceId = sinceId;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * message_id waited past -> the waiters, in the order they came.
+     */
+    private final TreeMap<Integer, Set<Waiter>> waiters = new TreeMap<>();
+    private final Reader reader;
+    private final int maxWaiters;
+    private final long maxWaitMillis;
+    private int size = 0;
+    private final ExecutorService readers;
+
+    /**
+     * @param reader        reads the messages waited for
+     * @param maxWaiters    the most requests that may wait at once
+     * @param maxWaitMillis the longest a request may wait
+     * @param readers       how many threads read messages for woken requests
+     */
+    public MessageWaiters(Reader reader, int maxWaiters, long maxWaitMillis, int readers) {
+        this.reader = reader;
+        this.maxWaiters = maxWaiters;
+        this.maxWaitMillis = maxWaitMillis;
+        this.readers = Executors.newFixedThreadPool(readers, runnable -> {
+            Thread thread = new Thread(runnable, "MessageWaiters");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param reader reads the messages waited for
+     * @return waiters limited by the service.long-poll.* settings
+     */
+    public static MessageWaiters fromConfig(Reader reader) {
+        return new MessageWaiters(reader, AppConfig.getInt("service.long-poll.max-waiters", 10000),
+                AppConfig.getLong("service.long-poll.max-wait-ms", 25000),
+                AppConfig.getInt("service.long-poll.readers", 4));
+    }
+
+    /**
+     * @return the longest a request may wait
+     */
+    public long maxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Starts waiting for a message inserted with an id above sinceId.
+     *
+     * @param sinceId    the highest message_id the waiter has
+     * @param limit      the most messages to return
+     * @param waitMillis how long to wait, at most maxWaitMillis()
+     * @return a future of the messages after sinceId, completed when such a message is inserted or the wait is over,
+     * whichever comes first; read at once if too many requests are waiting. Complete it to stop waiting.
+     */
+    public CompletableFuture<List<Message>> await(int sinceId, int limit, long waitMillis) {
+        Waiter waiter = new Waiter(sinceId, limit);
+        synchronized (this) {
+            if (size >= maxWaiters) {
+                readers.execute(() -> readAlone(waiter));
+                return waiter.future;
+            }
+            waiters.computeIfAbsent(sinceId, id -> new LinkedHashSet<>()).add(waiter);
+            size++;
+        }
+        CompletableFuture.delayedExecutor(Math.min(waitMillis, maxWaitMillis), TimeUnit.MILLISECONDS, readers)
+                .execute(() -> {
+                    if (remove(waiter)) {
+                        readAlone(waiter);
+                    }
+                });
+        waiter.future.whenComplete((ignored, e) -> remove(waiter));
+        return waiter.future;
+    }
+
+    /**
+     * Wakes every waiter that has not seen a newly inserted message yet, and reads the new messages for all of them.
+     *
+     * @param messageId the id of the inserted message
+     */
+    public void inserted(int messageId) {
+        List<Waiter> woken = new ArrayList<>();
+        synchronized (this) {
+            Map<Integer, Set<Waiter>> passed = waiters.headMap(messageId, false);
+            for (Set<Waiter> set : passed.values()) {
+                woken.addAll(set);
+            }
+            size -= woken.size();
+            passed.clear();
+        }
+        if (!woken.isEmpty()) {
+            readers.execute(() -> readShared(woken));
+        }
+    }
+
+    /**
+     * Reads the messages after the lowest id any of the waiters has, as many as the highest limit, and gives each
+     * waiter the ones after its own id.
+     */
+    private void readShared(List<Waiter> woken) {
+        int sinceId = Integer.MAX_VALUE;
+        int limit = 0;
+        for (Waiter waiter : woken) {
+            sinceId = Math.min(sinceId, waiter.sinceId);
+            limit = Math.max(limit, waiter.limit);
+        }
+        List<Message> messages = read(sinceId, limit);
+        for (Waiter waiter : woken) {
+            List<Message> after = after(messages, waiter.sinceId, waiter.limit);
+            // More messages may follow the ones read, and this waiter did not get as many as it asked for
+            if (messages.size() >= limit && after.size() < waiter.limit) {
+                readAlone(waiter);
+            } else {
+                waiter.future.complete(after);
+            }
+        }
+    }
+
+    private void readAlone(Waiter waiter) {
+        waiter.future.complete(read(waiter.sinceId, waiter.limit));
+    }
+
+    private List<Message> read(int sinceId, int limit) {
+        try {
+            return reader.read(sinceId, limit);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * @param messages messages in message_id order
+     * @return the first messages with a message_id above sinceId, at most limit of them
+     */
+    private static List<Message> after(List<Message> messages, int sinceId, int limit) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (messages.get(middle).getMessage_id() <= sinceId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return new ArrayList<>(messages.subList(low, Math.min(messages.size(), low + limit)));
+    }
+
+    /**
+     * Forgets a waiter that was completed or timed out, unless an insert already took it out.
+     *
+     * @return whether the waiter was still waiting
+     */
+    private synchronized boolean remove(Waiter waiter) {
+        Set<Waiter> set = waiters.get(waiter.sinceId);
+        if (set == null || !set.remove(waiter)) {
+            return false;
+        }
+        size--;
+        if (set.isEmpty()) {
+            waiters.remove(waiter.sinceId);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,251 @@
+package Service;
+
+import Util.AppConfig;
+import Util.ResponseCompression;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The JSON bodies of GET /messages/{message_id} and GET /accounts/{account_id}/messages as encoded bytes, so serving a
+ * cached response is a buffer copy with no database read and no Jackson work.
+ *
+ * The cache is bounded by bytes rather than entries, since an account's timeline can be a thousand times the size of
+ * one message: entries are dropped least recently used first until the bodies and a per entry overhead fit in
+ * service.response-cache.max-bytes, and a body larger than an eighth of that is not cached at all. Like the
+ * MessageCache it is kept correct across processes by the InvalidationBus: a change to a message drops that message's
+ * body and its author's timeline. Each key has a version, the number of its last invalidation, so a body encoded from
+ * a read is only kept out of the cache by a change to its own message or timeline, not by a write anywhere else.
+ *
+ * A body also keeps its gzip and deflate forms once a client has asked for them, so a compressed response is
+ * compressed only once; they count towards the bound as well.
+ */
+public class ResponseCache implements InvalidationListener {
+
+    /**
+     * An encoded body, and its compressed forms once they are needed.
+     */
+    public class Body {
+        private final String key;
+        private final byte[] json;
+        private byte[] gzip;
+        private byte[] deflate;
+
+        private Body(String key, byte[] json) {
+            this.key = key;
+            this.json = json;
+        }
+
+        /**
+         * @return the JSON bytes
+         */
+        public byte[] json() {
+            return json;
+        }
+
+        /**
+         * Compresses the body the first time each encoding is asked for, and keeps the result while the body is
+         * cached.
+         *
+         * @param encoding ResponseCompression.GZIP or ResponseCompression.DEFLATE
+         * @return the compressed bytes
+         */
+        public byte[] encoded(String encoding) {
+            boolean gzipped = ResponseCompression.GZIP.equals(encoding);
+            synchronized (ResponseCache.this) {
+                byte[] existing = gzipped ? gzip : deflate;
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            // Compress outside the lock; two threads may both do it the first time, which is harmless
+            byte[] compressed = ResponseCompression.compress(json, encoding);
+            synchronized (ResponseCache.this) {
+                if ((gzipped ? gzip : deflate) == null) {
+                    if (gzipped) {
+                        gzip = compressed;
+                    } else {
+                        deflate = compressed;
+                    }
+                    if (bodies.get(key) == this) {
+                        bytes += compressed.length;
+                        evict();
+                    }
+                }
+            }
+            return compressed;
+        }
+
+        private long size() {
+            return json.length + (gzip == null ? 0 : gzip.length) + (deflate == null ? 0 : deflate.length) + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Roughly what an entry costs beside its body: the map entry, the key and the array header.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final String MESSAGE = "messages/";
+    private static final String TIMELINE = "accounts/";
+
+    private final Map<String, Body> bodies = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes = 0;
+    /**
+     * Counts invalidations, so a body encoded from a read is not cached if its key changed during the read.
+     */
+    private long invalidations = 0;
+    /**
+     * key -> its version: the number of its last invalidation, for the last RECENT invalidations, oldest first.
+     */
+    private final LinkedHashMap<String, Long> versions = new LinkedHashMap<>();
+    /**
+     * The number of the last invalidation of every timeline, and of invalidateAll().
+     */
+    private long timelinesAt = 0;
+    private long clearedAt = 0;
+    /**
+     * How many invalidations back a put can tell whether its key was among them.
+     */
+    private static final int RECENT = 1024;
+
+    /**
+     * @param maxBytes the most bytes the cached bodies may take
+     */
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return a cache bounded by the service.response-cache.max-bytes setting
+     */
+    public static ResponseCache fromConfig() {
+        return new ResponseCache(AppConfig.getLong("service.response-cache.max-bytes", 64L * 1024 * 1024));
+    }
+
+    /**
+     * @param messageId the id of a message
+     * @return the cache key of the message's body
+     */
+    public static String messageKey(int messageId) {
+        return MESSAGE + messageId;
+    }
+
+    /**
+     * @param accountId the id of an account
+     * @return the cache key of the body listing the account's messages
+     */
+    public static String timelineKey(int accountId) {
+        return TIMELINE + accountId;
+    }
+
+    /**
+     * @param key the cache key of the body
+     * @return the cached body, or null if it is not cached
+     */
+    public synchronized Body get(String key) {
+        return bodies.get(key);
+    }
+
+    /**
+     * Take a stamp before reading what a body is encoded from and pass it to put().
+     *
+     * @return the current invalidation count
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Caches a body, unless its key was invalidated since the stamp was taken (or too many keys were to tell), or it is
+     * too large to be worth the room.
+     *
+     * @param key   the cache key of the body
+     * @param json  the encoded body
+     * @param stamp the value of stamp() taken before reading what the body was encoded from
+     * @return the body, whether it was cached or not
+     */
+    public synchronized Body put(String key, byte[] json, long stamp) {
+        Body body = new Body(key, json);
+        if (changedSince(key, stamp) || body.size() > maxBytes / 8) {
+            return body;
+        }
+        remove(key);
+        bodies.put(key, body);
+        bytes += body.size();
+        evict();
+        return body;
+    }
+
+    /**
+     * @return whether the key's version is newer than the stamp, or may be
+     */
+    private boolean changedSince(String key, long stamp) {
+        if (stamp < clearedAt || invalidations - stamp > RECENT || (key.startsWith(TIMELINE) && stamp < timelinesAt)) {
+            return true;
+        }
+        return versions.getOrDefault(key, 0L) > stamp;
+    }
+
+    /**
+     * Gives a key the current invalidation number as its version, and forgets versions too old for any put to ask.
+     */
+    private void bumpVersion(String key) {
+        // Removed first, so the key moves to the newest end
+        versions.remove(key);
+        versions.put(key, invalidations);
+        for (Iterator<Long> it = versions.values().iterator(); it.hasNext() && it.next() <= invalidations - RECENT; ) {
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops the least recently used bodies until the rest fit.
+     */
+    private void evict() {
+        for (Iterator<Body> it = bodies.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            bytes -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops the body of the message and the timeline of its account; when the account is not known, every timeline.
+     */
+    @Override
+    public synchronized void invalidate(int messageId, int accountId) {
+        invalidations++;
+        remove(messageKey(messageId));
+        bumpVersion(messageKey(messageId));
+        if (accountId != 0) {
+            remove(timelineKey(accountId));
+            bumpVersion(timelineKey(accountId));
+            return;
+        }
+        timelinesAt = invalidations;
+        for (Iterator<Map.Entry<String, Body>> it = bodies.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Body> entry = it.next();
+            if (entry.getKey().startsWith(TIMELINE)) {
+                bytes -= entry.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        invalidations++;
+        clearedAt = invalidations;
+        versions.clear();
+        bodies.clear();
+        bytes = 0;
+    }
+
+    private void remove(String key) {
+        Body removed = bodies.remove(key);
+        if (removed != null) {
+            bytes -= removed.size();
+        }
+    }
+}
@@ -0,0 +1,740 @@
+package Service;
+
+import DAO.MessageStore;
+import Model.Message;
+import Util.AppConfig;
+import Util.IntObjectMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A full-text index of message_text for GET /messages/search.
+ *
+ * Text is split into lower case runs of letters and digits (terms). Each term has a posting list: the message_ids
+ * containing it with the number of times it occurs (tf), stored as varints in a byte array, each id as the zigzag
+ * encoded difference from the previous one. Ids nearly always grow, so most entries take two or three bytes.
+ *
+ * Queries are whitespace separated clauses that must all match:
+ * - word: messages containing the term
+ * - word*: messages containing a term starting with word
+ * - "some words": messages containing the words next to each other
+ * Results are ranked with BM25 over the term frequencies and message lengths.
+ *
+ * Posting lists are only appended to. A deleted message is dropped at query time because its length is cleared. An
+ * updated message gets new postings and is marked, and marked messages are checked against the query on their
+ * current text before they are returned, as are all phrase matches. A change that leaves the terms of a message as
+ * they were (compared by a 64 bit fingerprint) changes nothing, so hearing of a change twice costs no postings. Once the postings of deleted or replaced text
+ * make up service.search.rebuild-stale-fraction of the index, it is rebuilt from the store in the background.
+ *
+ * The index listens to the InvalidationBus, so it sees changes from every process. It is saved to service.search.file
+ * when the process exits, with the seq of the last change it applied, and loaded on the next start, then brought up
+ * to date from the message_change table; if the changes it missed are no longer there, it is rebuilt from the store
+ * instead. Each process needs a file of its own (see ClusterMain): the index locks the file while the process runs.
+ */
+public class SearchIndex implements InvalidationListener {
+
+    private static final int MAGIC = 0x53494459;
+    /**
+     * BM25 parameters.
+     */
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    /**
+     * The most terms a prefix clause expands to.
+     */
+    private static final int MAX_PREFIX_TERMS = 100;
+    private static final Pattern CLAUSE = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+    /**
+     * The posting list of one term.
+     */
+    private static class Postings {
+        byte[] data = new byte[8];
+        int length = 0;
+        int lastId = 0;
+        /**
+         * Number of entries, including those of deleted or replaced text.
+         */
+        int count = 0;
+
+        void add(int messageId, int tf) {
+            int delta = messageId - lastId;
+            writeVarint((delta << 1) ^ (delta >> 31));
+            writeVarint(tf);
+            lastId = messageId;
+            count++;
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+
+    /**
+     * Reads a posting list entry by entry.
+     */
+    private static class PostingsReader {
+        final Postings postings;
+        int position = 0;
+        int messageId = 0;
+        int tf;
+
+        PostingsReader(Postings postings) {
+            this.postings = postings;
+        }
+
+        boolean next() {
+            if (position >= postings.length) {
+                return false;
+            }
+            int zigzag = readVarint();
+            messageId += (zigzag >>> 1) ^ -(zigzag & 1);
+            tf = readVarint();
+            return true;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = postings.data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Everything the index knows. A rebuild fills a new State and swaps it in.
+     */
+    private static class State {
+        final TreeMap<String, Postings> postings = new TreeMap<>();
+        /**
+         * message_id -> number of terms + 1, or 0 if the message is not indexed.
+         */
+        int[] lengths = new int[1024];
+        /**
+         * message_id -> fingerprint of its terms, to tell whether a change left them as they are.
+         */
+        long[] fingerprints = new long[1024];
+        /**
+         * Messages updated since the last rebuild, whose older postings may no longer match.
+         */
+        final BitSet updated = new BitSet();
+        int documents = 0;
+        long totalLength = 0;
+        long entries = 0;
+        long staleEntries = 0;
+
+        /**
+         * Indexes a message's text. Indexing the same terms again, as when a change is heard of twice, does nothing.
+         */
+        void add(int messageId, String text) {
+            List<String> terms = tokenize(text);
+            long fingerprint = fingerprint(terms);
+            if (messageId >= lengths.length) {
+                int capacity = Math.max(lengths.length * 2, messageId + 1);
+                lengths = Arrays.copyOf(lengths, capacity);
+                fingerprints = Arrays.copyOf(fingerprints, capacity);
+            }
+            if (lengths[messageId] != 0) {
+                if (fingerprints[messageId] == fingerprint) {
+                    return;
+                }
+                remove(messageId);
+                updated.set(messageId);
+            }
+            fingerprints[messageId] = fingerprint;
+            Map<String, int[]> frequencies = new HashMap<>();
+            for (String term : terms) {
+                frequencies.computeIfAbsent(term, t -> new int[1])[0]++;
+            }
+            for (Map.Entry<String, int[]> frequency : frequencies.entrySet()) {
+                postings.computeIfAbsent(frequency.getKey(), t -> new Postings()).add(messageId, frequency.getValue()[0]);
+            }
+            entries += frequencies.size();
+            lengths[messageId] = terms.size() + 1;
+            documents++;
+            totalLength += terms.size();
+        }
+
+        void remove(int messageId) {
+            if (messageId < lengths.length && lengths[messageId] != 0) {
+                // Roughly the postings of the old text, which stay in the lists until the next rebuild
+                staleEntries += lengths[messageId] - 1;
+                totalLength -= lengths[messageId] - 1;
+                documents--;
+                lengths[messageId] = 0;
+            }
+        }
+
+        boolean isIndexed(int messageId) {
+            return messageId < lengths.length && lengths[messageId] != 0;
+        }
+
+        /**
+         * @return a 64 bit FNV-1a hash of the terms in order
+         */
+        static long fingerprint(List<String> terms) {
+            long hash = 0xcbf29ce484222325L;
+            for (String term : terms) {
+                for (int i = 0; i < term.length(); i++) {
+                    hash = (hash ^ term.charAt(i)) * 0x100000001b3L;
+                }
+                // Terms never contain a space, so it separates them
+                hash = (hash ^ ' ') * 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * One clause of a query.
+     */
+    private static class Clause {
+        final List<String> terms;
+        final boolean prefix;
+
+        Clause(List<String> terms, boolean prefix) {
+            this.terms = terms;
+            this.prefix = prefix;
+        }
+
+        boolean isPhrase() {
+            return terms.size() > 1;
+        }
+    }
+
+    private final MessageStore store;
+    private final Path file;
+    private final double rebuildFraction;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SearchIndexRebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Held on file + ".lock" as long as the process runs, so no other process saves over or deletes the file.
+     */
+    private final FileLock fileLock;
+    private State state = new State();
+    /**
+     * The seq of the newest change in message_change the index has applied; every change up to it is in the index.
+     */
+    private long appliedSeq = 0;
+    /**
+     * Ids changed while a rebuild is reading the store, indexed again once it finishes; null when not rebuilding.
+     */
+    private List<Integer> changedDuringRebuild = null;
+    private boolean rebuildQueued = false;
+
+    /**
+     * Locks the file, then loads the index saved in it, or builds it from the store.
+     *
+     * @param file            where the index is saved when the process exits
+     * @param store           the messages to index
+     * @param rebuildFraction rebuild once this fraction of the postings is stale
+     * @throws IllegalStateException if another process holds the file
+     */
+    public SearchIndex(Path file, MessageStore store, double rebuildFraction) {
+        this.file = file;
+        this.store = store;
+        this.rebuildFraction = rebuildFraction;
+        this.fileLock = lock(file);
+        if (!load()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @param store the messages to index
+     * @return an index configured from the service.search.* settings, saved when the process exits
+     */
+    public static SearchIndex fromConfig(MessageStore store) {
+        SearchIndex index = new SearchIndex(Path.of(AppConfig.getString("service.search.file", "./h2/search.idx")), store,
+                Double.parseDouble(AppConfig.getString("service.search.rebuild-stale-fraction", "0.25")));
+        Runtime.getRuntime().addShutdownHook(new Thread(index::save, "SearchIndexSave"));
+        return index;
+    }
+
+    /**
+     * @return the lock of file + ".lock", held until the process exits
+     * @throws IllegalStateException if another process (or another index in this one) holds it
+     */
+    private static FileLock lock(Path file) {
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                throw new IllegalStateException("The search index " + file + " is used by another process. "
+                        + "Give every process its own service.search.file.");
+            }
+            return lock;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not lock the search index " + lockFile, e);
+        }
+    }
+
+    /**
+     * Splits text into terms: lower case runs of letters and digits.
+     *
+     * @param text the text to split
+     * @return the terms in order
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inTerm && start < 0) {
+                start = i;
+            } else if (!inTerm && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Finds the messages matching a query, best first.
+     *
+     * @param query  the query, see the class comment
+     * @param offset how many matches to skip
+     * @param limit  the most matches to return
+     * @return the matching messages
+     * @throws SQLException if the messages could not be read
+     */
+    public List<Message> search(String query, int offset, int limit) throws SQLException {
+        List<Clause> clauses = parse(query);
+        if (clauses.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int[] ranked;
+        BitSet updated;
+        lock.readLock().lock();
+        try {
+            ranked = rank(clauses);
+            updated = (BitSet) state.updated.clone();
+        } finally {
+            lock.readLock().unlock();
+        }
+        // A phrase only guarantees its words are all there, not that they are next to each other
+        boolean verifyAll = clauses.stream().anyMatch(Clause::isPhrase);
+
+        // Fetch the ranked messages a batch at a time and keep those that still match
+        List<Message> page = new ArrayList<>();
+        int skipped = 0;
+        int batchSize = Math.max(32, offset + limit);
+        for (int from = 0; from < ranked.length && page.size() < limit; from += batchSize) {
+            int[] batch = Arrays.copyOfRange(ranked, from, Math.min(ranked.length, from + batchSize));
+            int[] sorted = batch.clone();
+            Arrays.sort(sorted);
+            IntObjectMap<Message> fetched = new IntObjectMap<>(batch.length);
+            for (Message message : store.getMessagesByIds(sorted)) {
+                fetched.put(message.getMessage_id(), message);
+            }
+            for (int messageId : batch) {
+                Message message = fetched.get(messageId);
+                if (message == null || ((verifyAll || updated.get(messageId)) && !matches(clauses, message.getMessage_text()))) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                } else if (page.size() < limit) {
+                    page.add(message);
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return the ids of the messages with every clause, best BM25 score first. The caller holds the read lock.
+     */
+    private int[] rank(List<Clause> clauses) {
+        IntObjectMap<double[]> scores = null;
+        for (Clause clause : clauses) {
+            IntObjectMap<double[]> clauseScores = new IntObjectMap<>();
+            if (clause.prefix) {
+                String prefix = clause.terms.get(0);
+                int expanded = 0;
+                for (Map.Entry<String, Postings> term : state.postings.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+                    if (expanded++ == MAX_PREFIX_TERMS) {
+                        break;
+                    }
+                    score(term.getValue(), clauseScores);
+                }
+            } else {
+                // Every word of a phrase has to be there, so a phrase is the intersection of its terms
+                IntObjectMap<double[]> phraseScores = null;
+                for (String term : clause.terms) {
+                    IntObjectMap<double[]> termScores = new IntObjectMap<>();
+                    score(state.postings.get(term), termScores);
+                    phraseScores = phraseScores == null ? termScores : intersect(phraseScores, termScores);
+                }
+                clauseScores = phraseScores;
+            }
+            scores = scores == null ? clauseScores : intersect(scores, clauseScores);
+        }
+
+        // Sort by score, best first, and by newest first when scores are equal
+        List<double[]> hits = new ArrayList<>(scores.size());
+        scores.forEachValue(hits::add);
+        hits.sort((a, b) -> a[0] != b[0] ? Double.compare(b[0], a[0]) : Double.compare(b[1], a[1]));
+        int[] ranked = new int[hits.size()];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = (int) hits.get(i)[1];
+        }
+        return ranked;
+    }
+
+    /**
+     * Adds the BM25 score of one term to every indexed message containing it. The values are {score, message_id}.
+     * For an updated message only its newest entry counts.
+     */
+    private void score(Postings postings, IntObjectMap<double[]> scores) {
+        if (postings == null) {
+            return;
+        }
+        State current = state;
+        double documents = Math.max(1, current.documents);
+        double averageLength = Math.max(1.0, current.totalLength / documents);
+        double idf = Math.log(1 + (documents - postings.count + 0.5) / (postings.count + 0.5));
+        IntObjectMap<int[]> newest = new IntObjectMap<>();
+        PostingsReader reader = new PostingsReader(postings);
+        while (reader.next()) {
+            if (!current.isIndexed(reader.messageId)) {
+                continue;
+            }
+            if (current.updated.get(reader.messageId)) {
+                newest.put(reader.messageId, new int[]{reader.tf, reader.messageId});
+            } else {
+                add(scores, reader.messageId, bm25(idf, reader.tf, current.lengths[reader.messageId] - 1, averageLength));
+            }
+        }
+        newest.forEachValue(tf -> add(scores, tf[1], bm25(idf, tf[0], current.lengths[tf[1]] - 1, averageLength)));
+    }
+
+    private static double bm25(double idf, int tf, int length, double averageLength) {
+        return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+    }
+
+    private static void add(IntObjectMap<double[]> scores, int messageId, double score) {
+        double[] existing = scores.get(messageId);
+        if (existing == null) {
+            scores.put(messageId, new double[]{score, messageId});
+        } else {
+            existing[0] += score;
+        }
+    }
+
+    /**
+     * @return the messages in both maps, with their scores summed
+     */
+    private static IntObjectMap<double[]> intersect(IntObjectMap<double[]> a, IntObjectMap<double[]> b) {
+        IntObjectMap<double[]> smaller = a.size() <= b.size() ? a : b;
+        IntObjectMap<double[]> larger = smaller == a ? b : a;
+        IntObjectMap<double[]> both = new IntObjectMap<>(smaller.size());
+        smaller.forEachValue(score -> {
+            double[] other = larger.get((int) score[1]);
+            if (other != null) {
+                both.put((int) score[1], new double[]{score[0] + other[0], score[1]});
+            }
+        });
+        return both;
+    }
+
+    /**
+     * Parses a query into clauses. Words of a quoted phrase are one clause; other words are one clause per term.
+     */
+    private static List<Clause> parse(String query) {
+        List<Clause> clauses = new ArrayList<>();
+        Matcher matcher = CLAUSE.matcher(query);
+        while (matcher.find()) {
+            if (matcher.group(1) != null) {
+                List<String> terms = tokenize(matcher.group(1));
+                if (!terms.isEmpty()) {
+                    clauses.add(new Clause(terms, false));
+                }
+                continue;
+            }
+            String word = matcher.group(2);
+            List<String> terms = tokenize(word);
+            boolean prefix = word.endsWith("*") && !terms.isEmpty();
+            for (int i = 0; i < terms.size(); i++) {
+                clauses.add(new Clause(List.of(terms.get(i)), prefix && i == terms.size() - 1));
+            }
+        }
+        return clauses;
+    }
+
+    /**
+     * Checks a message's current text against every clause.
+     */
+    private static boolean matches(List<Clause> clauses, String text) {
+        List<String> terms = tokenize(text);
+        for (Clause clause : clauses) {
+            boolean found = false;
+            for (int i = 0; i + clause.terms.size() <= terms.size() && !found; i++) {
+                found = true;
+                for (int j = 0; j < clause.terms.size() && found; j++) {
+                    String term = terms.get(i + j);
+                    String wanted = clause.terms.get(j);
+                    found = clause.prefix ? term.startsWith(wanted) : term.equals(wanted);
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the changed message back from the store and indexes its current text.
+     */
+    @Override
+    public void invalidate(int messageId, int accountId) {
+        lock.writeLock().lock();
+        try {
+            Message message = store.getMessageById(messageId);
+            if (message == null) {
+                state.remove(messageId);
+            } else {
+                state.add(messageId, message.getMessage_text());
+            }
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.add(messageId);
+            }
+            if (!rebuildQueued && state.staleEntries > state.entries * rebuildFraction) {
+                rebuildQueued = true;
+                rebuilder.execute(this::rebuild);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a change polled from message_change and records its seq as applied. A change at or below the applied
+     * seq is already in the index, read from the store after it was made.
+     */
+    @Override
+    public void invalidate(int messageId, int accountId, long seq) {
+        lock.writeLock().lock();
+        try {
+            if (seq <= appliedSeq) {
+                return;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        invalidate(messageId, accountId);
+        lock.writeLock().lock();
+        try {
+            appliedSeq = Math.max(appliedSeq, seq);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        rebuild();
+    }
+
+    /**
+     * Builds a new index from every message in the store while queries use the old one, then swaps it in and indexes
+     * again the messages that changed in the meantime. The store is read after taking the newest seq, so the new index
+     * holds at least every change up to that seq.
+     */
+    public synchronized void rebuild() {
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long seq = InvalidationBus.latestSeq();
+        State fresh = new State();
+        store.forEachMessage(message -> fresh.add(message.getMessage_id(), message.getMessage_text()));
+        List<Integer> changed;
+        lock.writeLock().lock();
+        try {
+            state = fresh;
+            appliedSeq = seq;
+            changed = changedDuringRebuild;
+            changedDuringRebuild = null;
+            rebuildQueued = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (int messageId : changed) {
+            invalidate(messageId, 0);
+        }
+    }
+
+    /**
+     * Writes the index to its file, with the seq of the last change it applied. Changes after that seq, including
+     * those not polled yet, are applied again when the file is loaded.
+     */
+    public void save() {
+        lock.readLock().lock();
+        try {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(appliedSeq);
+                out.writeInt(state.lengths.length);
+                for (int length : state.lengths) {
+                    out.writeInt(length);
+                }
+                for (long fingerprint : state.fingerprints) {
+                    out.writeLong(fingerprint);
+                }
+                long[] updated = state.updated.toLongArray();
+                out.writeInt(updated.length);
+                for (long word : updated) {
+                    out.writeLong(word);
+                }
+                out.writeInt(state.documents);
+                out.writeLong(state.totalLength);
+                out.writeLong(state.entries);
+                out.writeLong(state.staleEntries);
+                out.writeInt(state.postings.size());
+                for (Map.Entry<String, Postings> term : state.postings.entrySet()) {
+                    Postings postings = term.getValue();
+                    out.writeUTF(term.getKey());
+                    out.writeInt(postings.count);
+                    out.writeInt(postings.lastId);
+                    out.writeInt(postings.length);
+                    out.write(postings.data, 0, postings.length);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not save the search index: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Loads the saved index and applies the changes made since it was saved. The file is deleted once loaded, so after
+     * a crash the index is rebuilt rather than trusted.
+     *
+     * @return false if there was no usable saved index
+     */
+    private boolean load() {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        State loaded = new State();
+        long seq;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return false;
+            }
+            seq = in.readLong();
+            loaded.lengths = new int[in.readInt()];
+            for (int i = 0; i < loaded.lengths.length; i++) {
+                loaded.lengths[i] = in.readInt();
+            }
+            loaded.fingerprints = new long[loaded.lengths.length];
+            for (int i = 0; i < loaded.fingerprints.length; i++) {
+                loaded.fingerprints[i] = in.readLong();
+            }
+            long[] updated = new long[in.readInt()];
+            for (int i = 0; i < updated.length; i++) {
+                updated[i] = in.readLong();
+            }
+            loaded.updated.or(BitSet.valueOf(updated));
+            loaded.documents = in.readInt();
+            loaded.totalLength = in.readLong();
+            loaded.entries = in.readLong();
+            loaded.staleEntries = in.readLong();
+            int terms = in.readInt();
+            for (int i = 0; i < terms; i++) {
+                Postings postings = new Postings();
+                String term = in.readUTF();
+                postings.count = in.readInt();
+                postings.lastId = in.readInt();
+                postings.length = in.readInt();
+                postings.data = new byte[Math.max(8, postings.length)];
+                in.readFully(postings.data, 0, postings.length);
+                loaded.postings.put(term, postings);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not load the search index: " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        // Taken before reading the changes, so every change up to it is among them
+        long latest = InvalidationBus.latestSeq();
+        int[] changed = InvalidationBus.changedSince(seq);
+        if (changed == null) {
+            return false;
+        }
+        state = loaded;
+        appliedSeq = Math.max(seq, latest);
+        for (int messageId : changed) {
+            invalidate(messageId, 0);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,128 @@
+package Service;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A coarse directory from hours of time_posted_epoch to the range of message_ids posted in that hour, so a time
+ * range query only reads the ids of the hours it covers. Messages are posted roughly in id order, so each hour's range
+ * is narrow and "the last 15 minutes" touches only the newest ids.
+ *
+ * Ranges only grow: a deleted message leaves its hour's range as it was, which can only make a query read a few more
+ * ids than needed. The directory is rebuilt from the MessageMetaIndex and kept current through the InvalidationBus;
+ * like AccountMessageIndex it must be registered after the MessageMetaIndex.
+ */
+public class TimeBucketIndex implements InvalidationListener {
+
+    /**
+     * The width of a bucket, in the seconds of time_posted_epoch.
+     */
+    private static final long BUCKET_SECONDS = 3600;
+
+    private final MessageMetaIndex metaIndex;
+    /**
+     * hour -> {lowest message_id, highest message_id} posted in that hour.
+     */
+    private final TreeMap<Long, int[]> buckets = new TreeMap<>();
+
+    /**
+     * @param metaIndex tells when each message was posted
+     */
+    public TimeBucketIndex(MessageMetaIndex metaIndex) {
+        this.metaIndex = metaIndex;
+        invalidateAll();
+    }
+
+    /**
+     * @param since the earliest time_posted_epoch wanted
+     * @param until the latest time_posted_epoch wanted
+     * @return {lowest, highest} message_id that can have been posted in the range, or null if none can
+     */
+    public synchronized int[] idRange(long since, long until) {
+        if (since > until) {
+            return null;
+        }
+        int lowest = Integer.MAX_VALUE;
+        int highest = Integer.MIN_VALUE;
+        for (int[] range : buckets.subMap(Math.floorDiv(since, BUCKET_SECONDS), true, Math.floorDiv(until, BUCKET_SECONDS), true).values()) {
+            lowest = Math.min(lowest, range[0]);
+            highest = Math.max(highest, range[1]);
+        }
+        return lowest > highest ? null : new int[]{lowest, highest};
+    }
+
+    /**
+     * Finds the earliest and latest posting times by reading only the ids of the first and last hours that still have
+     * a message in them.
+     *
+     * @return {earliest, latest} time_posted_epoch in the meta index, or null if it is empty
+     */
+    public synchronized long[] firstAndLastPosted() {
+        Long first = null;
+        for (Map.Entry<Long, int[]> bucket : buckets.entrySet()) {
+            first = extremeIn(bucket.getKey(), bucket.getValue(), true);
+            if (first != null) {
+                break;
+            }
+        }
+        if (first == null) {
+            return null;
+        }
+        for (Map.Entry<Long, int[]> bucket : buckets.descendingMap().entrySet()) {
+            Long last = extremeIn(bucket.getKey(), bucket.getValue(), false);
+            if (last != null) {
+                return new long[]{first, last};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the earliest (or latest) time_posted_epoch within an hour of the messages in its id range, or null if
+     * none of them is still there
+     */
+    private Long extremeIn(long hour, int[] range, boolean earliest) {
+        Long extreme = null;
+        for (int messageId = range[0]; messageId <= range[1]; messageId++) {
+            if (!metaIndex.contains(messageId)) {
+                continue;
+            }
+            long epoch = metaIndex.timePosted(messageId);
+            // The range can also hold ids posted in other hours
+            if (Math.floorDiv(epoch, BUCKET_SECONDS) == hour && (extreme == null || (earliest ? epoch < extreme : epoch > extreme))) {
+                extreme = epoch;
+            }
+        }
+        return extreme;
+    }
+
+    private void add(long epoch, int messageId) {
+        int[] range = buckets.computeIfAbsent(Math.floorDiv(epoch, BUCKET_SECONDS), hour -> new int[]{messageId, messageId});
+        range[0] = Math.min(range[0], messageId);
+        range[1] = Math.max(range[1], messageId);
+    }
+
+    /**
+     * Widens the bucket of a new message; updates and deletes need nothing.
+     */
+    @Override
+    public synchronized void invalidate(int messageId, int accountId) {
+        if (metaIndex.contains(messageId)) {
+            add(metaIndex.timePosted(messageId), messageId);
+        }
+    }
+
+    /**
+     * Rebuilds the directory from every message in the meta index.
+     */
+    @Override
+    public synchronized void invalidateAll() {
+        buckets.clear();
+        int maxId = metaIndex.maxId();
+        for (int messageId = 1; messageId <= maxId; messageId++) {
+            if (metaIndex.contains(messageId)) {
+                add(metaIndex.timePosted(messageId), messageId);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package Service;
+
+import Model.TrendingTerm;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * The terms used in the most messages posted over the last minutes, counted as messages are posted in fixed memory.
+ *
+ * Each minute of the window has its own CountMinSketch of how many messages posted in that minute used each term;
+ * the slot of a minute is reused once it falls out of the window. A term's count over the last n minutes is the sum
+ * of its estimates in the newest n sketches. The sketches cannot list their terms, so a bounded set of candidates -
+ * the terms with the highest counts seen so far - is kept beside them: a new term replaces the weakest candidate
+ * once its count is higher. Candidates' counts are refreshed when a minute starts, so terms that stop being used
+ * drop out. Memory is window * depth * width counters plus the candidates, whatever the message volume, and a query
+ * only reads the candidates' counters.
+ *
+ * Common words are not counted. Each process counts the messages posted through it; behind the round-robin proxy
+ * each sees an even share, so the ranking is the same in each. The counts start over when the database is reset.
+ *
+ * Settings: service.trending.*.
+ */
+public class TrendingTerms {
+
+    /**
+     * Terms too common to ever be interesting.
+     */
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "has", "have", "i", "if", "in",
+            "is", "it", "its", "me", "my", "no", "not", "of", "on", "or", "so", "that", "the", "this", "to", "was",
+            "we", "were", "what", "with", "you", "your");
+
+    private final int windowMinutes;
+    private final int maxCandidates;
+    private final LongSupplier clock;
+    /**
+     * The sketch of minute m is sketches[m % windowMinutes], and minutes[m % windowMinutes] == m while it holds it.
+     */
+    private final CountMinSketch[] sketches;
+    private final long[] minutes;
+    /**
+     * term -> its count over the whole window when last computed.
+     */
+    private final Map<String, Long> candidates = new HashMap<>();
+    private long currentMinute = Long.MIN_VALUE;
+
+    /**
+     * @param windowMinutes how many minutes of counts to keep
+     * @param width         the counters per row of each sketch
+     * @param depth         the rows of each sketch
+     * @param maxCandidates how many terms to keep as candidates for the top
+     * @param clock         the current time in milliseconds
+     */
+    public TrendingTerms(int windowMinutes, int width, int depth, int maxCandidates, LongSupplier clock) {
+        this.windowMinutes = windowMinutes;
+        this.maxCandidates = maxCandidates;
+        this.clock = clock;
+        this.sketches = new CountMinSketch[windowMinutes];
+        this.minutes = new long[windowMinutes];
+        for (int i = 0; i < windowMinutes; i++) {
+            sketches[i] = new CountMinSketch(width, depth);
+            minutes[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return trending terms configured from the service.trending.* settings, cleared when the database is reset
+     */
+    public static TrendingTerms fromConfig() {
+        TrendingTerms trending = new TrendingTerms(
+                AppConfig.getInt("service.trending.window-minutes", 60),
+                AppConfig.getInt("service.trending.sketch-width", 2048),
+                AppConfig.getInt("service.trending.sketch-depth", 4),
+                AppConfig.getInt("service.trending.candidates", 200),
+                System::currentTimeMillis);
+        ConnectionUtil.addResetListener(trending::clear);
+        return trending;
+    }
+
+    /**
+     * @return the longest window a query can ask for, in minutes
+     */
+    public int windowMinutes() {
+        return windowMinutes;
+    }
+
+    /**
+     * Counts the terms of a message posted now, each once however often the message uses it.
+     *
+     * @param text the message_text
+     */
+    public synchronized void add(String text) {
+        advance();
+        CountMinSketch sketch = sketches[slot(currentMinute)];
+        for (String term : new HashSet<>(SearchIndex.tokenize(text))) {
+            if (STOP_WORDS.contains(term)) {
+                continue;
+            }
+            long key = CountMinSketch.hash(term);
+            sketch.add(key, 1);
+            offer(term, count(key, windowMinutes));
+        }
+    }
+
+    /**
+     * @param lastMinutes how many of the latest minutes to count, at most windowMinutes()
+     * @param limit       the most terms to return
+     * @return the terms used in the most messages posted in those minutes, most used first
+     */
+    public synchronized List<TrendingTerm> top(int lastMinutes, int limit) {
+        advance();
+        List<TrendingTerm> terms = new ArrayList<>();
+        for (String term : candidates.keySet()) {
+            long count = count(CountMinSketch.hash(term), lastMinutes);
+            if (count > 0) {
+                terms.add(new TrendingTerm(term, count));
+            }
+        }
+        terms.sort((a, b) -> a.count != b.count ? Long.compare(b.count, a.count) : a.term.compareTo(b.term));
+        return terms.size() > limit ? new ArrayList<>(terms.subList(0, limit)) : terms;
+    }
+
+    /**
+     * Forgets every count.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < windowMinutes; i++) {
+            sketches[i].clear();
+            minutes[i] = Long.MIN_VALUE;
+        }
+        candidates.clear();
+        currentMinute = Long.MIN_VALUE;
+    }
+
+    /**
+     * Keeps a term as a candidate if there is room or it now outnumbers the weakest candidate.
+     */
+    private void offer(String term, long count) {
+        if (candidates.containsKey(term) || candidates.size() < maxCandidates) {
+            candidates.put(term, count);
+            return;
+        }
+        String weakest = null;
+        long weakestCount = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            if (candidate.getValue() < weakestCount) {
+                weakest = candidate.getKey();
+                weakestCount = candidate.getValue();
+            }
+        }
+        if (count > weakestCount) {
+            candidates.remove(weakest);
+            candidates.put(term, count);
+        }
+    }
+
+    /**
+     * Moves to the current minute. When a new minute starts its slot is cleared, and the candidates' counts are
+     * recomputed so terms no longer used can be replaced.
+     */
+    private void advance() {
+        long minute = Math.floorDiv(clock.getAsLong(), 60_000L);
+        if (minute == currentMinute) {
+            return;
+        }
+        currentMinute = minute;
+        int slot = slot(minute);
+        if (minutes[slot] != minute) {
+            sketches[slot].clear();
+            minutes[slot] = minute;
+        }
+        candidates.replaceAll((term, count) -> count(CountMinSketch.hash(term), windowMinutes));
+        candidates.values().removeIf(count -> count == 0);
+    }
+
+    /**
+     * @return the estimated number of messages using a term in the last minutes, up to and including this one
+     */
+    private long count(long key, int lastMinutes) {
+        long count = 0;
+        for (long minute = currentMinute - Math.min(lastMinutes, windowMinutes) + 1; minute <= currentMinute; minute++) {
+            int slot = slot(minute);
+            if (minutes[slot] == minute) {
+                count += sketches[slot].estimate(key);
+            }
+        }
+        return count;
+    }
+
+    private int slot(long minute) {
+        return (int) Math.floorMod(minute, (long) windowMinutes);
+    }
+}
@@ -0,0 +1,107 @@
+package Util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * The AppConfig class reads the runtime settings of the application, so ports, thread pools and database options can
+ * be tuned for each environment without a rebuild. Defaults live in application.properties on the classpath. A value
+ * is looked up in this order, and the first one found wins:
+ * 1. the JVM system property with the same name (-Dserver.port=9000)
+ * 2. the environment variable SOCIALMEDIA_{KEY}, with the key in upper case and '.' and '-' replaced by '_'
+ * 3. the properties file named by the socialmedia.config system property or the SOCIALMEDIA_CONFIG variable
+ * 4. application.properties
+ */
+public class AppConfig {
+
+    /**
+     * The settings from application.properties and the optional external file, loaded the first time a setting is read.
+     */
+    private static Properties properties = null;
+
+    /**
+     * @param key     the name of the setting, e.g. server.port
+     * @param fallback the value to use when the setting is not defined anywhere
+     * @return the value of the setting, or fallback
+     */
+    public static String getString(String key, String fallback) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(environmentName(key));
+        }
+        if (value == null) {
+            value = loadProperties().getProperty(key);
+        }
+        return value == null ? fallback : value.trim();
+    }
+
+    /**
+     * @param key      the name of the setting
+     * @param fallback the value to use when the setting is not defined or empty
+     * @return the setting as an int
+     */
+    public static int getInt(String key, int fallback) {
+        String value = getString(key, "");
+        return value.isEmpty() ? fallback : Integer.parseInt(value);
+    }
+
+    /**
+     * @param key      the name of the setting
+     * @param fallback the value to use when the setting is not defined or empty
+     * @return the setting as a long
+     */
+    public static long getLong(String key, long fallback) {
+        String value = getString(key, "");
+        return value.isEmpty() ? fallback : Long.parseLong(value);
+    }
+
+    /**
+     * @param key      the name of the setting
+     * @param fallback the value to use when the setting is not defined or empty
+     * @return the setting as a boolean
+     */
+    public static boolean getBoolean(String key, boolean fallback) {
+        String value = getString(key, "");
+        return value.isEmpty() ? fallback : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Turns a setting name into the name of the environment variable that overrides it,
+     * e.g. server.threads.max becomes SOCIALMEDIA_SERVER_THREADS_MAX.
+     */
+    static String environmentName(String key) {
+        return "SOCIALMEDIA_" + key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    /**
+     * Reads application.properties and then the external file on top of it, if one is configured.
+     */
+    private static synchronized Properties loadProperties() {
+        if (properties != null) {
+            return properties;
+        }
+        Properties loaded = new Properties();
+        try (InputStream in = AppConfig.class.getResourceAsStream("/application.properties")) {
+            if (in != null) {
+                loaded.load(in);
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+
+        String externalFile = System.getProperty("socialmedia.config", System.getenv("SOCIALMEDIA_CONFIG"));
+        if (externalFile != null) {
+            try (InputStream in = new FileInputStream(externalFile)) {
+                loaded.load(in);
+            } catch (IOException e) {
+                // A missing external file is a deployment mistake, so fail loudly instead of running with defaults.
+                throw new IllegalStateException("Could not read configuration file " + externalFile, e);
+            }
+        }
+        properties = loaded;
+        return properties;
+    }
+}
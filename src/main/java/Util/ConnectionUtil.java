@@ -1,38 +1,204 @@
 package Util;
 
 import org.h2.tools.RunScript;
+import org.h2.tools.Server;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The ConnectionUtil class will be utilized to create an active connection to our database. This class utilizes the singleton design pattern.
  * We will be utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * The database can be opened in one of two modes, chosen by the db.mode setting:
+ * - production mode (the default): the existing database is opened as it is. The tables are only created if the
+ *   database is empty, and the schema version stored in the database must match SCHEMA_VERSION.
+ * - test mode: the tables are dropped and recreated from SocialMedia.sql the first time a connection is made, so every
+ *   run starts from the same data.
+ * resetTestDatabase() always resets the database, whichever mode is used.
+ *
+ * By default the database is embedded in this process. To share one database between several processes, start an H2
+ * TCP server in one of them (db.server.start=true) and point db.url at it in all of them, e.g.
+ * jdbc:h2:tcp://localhost:9092/./h2/db.
+ *
+ * Messages can also be spread over several databases (db.shards); see DAO.ShardRouter.
  */
 public class ConnectionUtil {
 
     /**
-     * url will represent our connection string. Since this is an in-memory db, we will represent a file location to store the data
+     * The schema version SocialMedia.sql creates. Increase it together with any change to the tables and add the
+     * statements that upgrade an existing database to MIGRATIONS.
+     */
+    public static final int SCHEMA_VERSION = 3;
+    /**
+     * The statements that bring a production database from one schema version to the next. MIGRATIONS[v - 1] moves
+     * a database from version v to version v + 1.
+     */
+    private static final String[] MIGRATIONS = {
+            "create table message_change (seq bigint primary key auto_increment, message_id int, account_id int, change_type varchar(16))",
+            "create index if not exists message_time_posted on message (time_posted_epoch)"
+    };
+
+    /**
+     * url will represent our connection string. Since this is an in-memory db, we will represent a file location to store the data.
+     * It comes from the db.url setting, followed by the H2 tuning options from AppConfig.
      */
-    private static String url = "jdbc:h2:./h2/db";
+    private static String url = buildUrl();
     /**
-     * Default username for connecting to h2
+     * Username for connecting to h2, from the db.user setting
      */
-    private static String username = "sa";
+    private static String username = AppConfig.getString("db.user", "sa");
     /**
-     * Default password for connecting to h2
+     * Password for connecting to h2, from the db.password setting
      */
-    private static String password = "sa";
+    private static String password = AppConfig.getString("db.password", "sa");
     /**
      * a static object which represents the connection to h2. Because it is static, any DAO interacting
      * with this connection object is referring to the same object.
      */
     private static Connection connection = null;
+    /**
+     * The H2 TCP server started by this process, if db.server.start is true.
+     */
+    private static Server databaseServer = null;
+    /**
+     * When true, opening the connection keeps the existing data instead of resetting the database.
+     */
+    private static boolean productionMode = AppConfig.getString("db.mode", "production").equalsIgnoreCase("production");
+    /**
+     * The contents of SocialMedia.sql, read once and kept for every later reset.
+     */
+    private static String schemaScript = null;
+    /**
+     * The seed data of SocialMedia.sql (its insert statements), replayed by the fast reset.
+     */
+    private static String seedScript = null;
+    /**
+     * The tables SocialMedia.sql creates, in the order they are created.
+     */
+    private static List<String> tables = null;
+    /**
+     * True once the full script has run on this connection, so the tables are known to match the script and a reset
+     * only needs to empty them and insert the seed data again.
+     */
+    private static boolean schemaCreated = false;
+    /**
+     * Connections to the extra message shards (1 and up), opened the first time each shard is used. Shard 0 is the
+     * main database.
+     */
+    private static final Map<Integer, Connection> shardConnections = new ConcurrentHashMap<>();
+    /**
+     * The message table of an extra shard. It has no foreign key to account, because the account table only exists in
+     * the main database, so the DAO checks that the account exists before inserting.
+     */
+    private static final String SHARD_MESSAGE_TABLE = "create table if not exists message (" +
+            "message_id int primary key auto_increment, posted_by int, message_text varchar(255), time_posted_epoch bigint)";
+    /**
+     * The index on time_posted_epoch that the main message table has too, for time range queries.
+     */
+    private static final String SHARD_TIME_INDEX = "create index if not exists message_time_posted on message (time_posted_epoch)";
+    /**
+     * Code to run after every reset, so anything kept in memory about the old data (caches, indexes) is thrown away.
+     */
+    private static final List<Runnable> resetListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers code to run after every resetTestDatabase().
+     *
+     * @param listener the code to run
+     */
+    public static void addResetListener(Runnable listener) {
+        resetListeners.add(listener);
+    }
+
+    /**
+     * Starts an H2 TCP server in this process when db.server.start is true, so other processes can share this
+     * database through a url like jdbc:h2:tcp://localhost:9092/./h2/db. Does nothing if the server is already running.
+     */
+    public static synchronized void startDatabaseServer() throws SQLException {
+        if (databaseServer != null || !AppConfig.getBoolean("db.server.start", false)) {
+            return;
+        }
+        databaseServer = Server.createTcpServer(
+                "-tcpPort", String.valueOf(AppConfig.getInt("db.server.port", 9092)),
+                "-ifNotExists").start();
+        System.out.println("H2 TCP server started at " + databaseServer.getURL());
+    }
+
+    /**
+     * Returns the connection to a message shard. Shard 0 is the main database; the other shards are separate H2
+     * databases whose url is the db.shard.url setting with {n} replaced by the shard number. An extra shard gets its
+     * message table the first time it is opened.
+     *
+     * @param shard the shard number, from 0 to db.shards - 1
+     * @return an active connection to that shard
+     */
+    public static Connection getShardConnection(int shard) {
+        if (shard == 0) {
+            return getConnection();
+        }
+        return shardConnections.computeIfAbsent(shard, n -> {
+            try {
+                String shardUrl = AppConfig.getString("db.shard.url", "jdbc:h2:./h2/shard{n}").replace("{n}", String.valueOf(n));
+                Connection shardConnection = DriverManager.getConnection(shardUrl, username, password);
+                try (Statement statement = shardConnection.createStatement()) {
+                    statement.executeUpdate(SHARD_MESSAGE_TABLE);
+                    statement.executeUpdate(SHARD_TIME_INDEX);
+                }
+                return shardConnection;
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not open message shard " + n, e);
+            }
+        });
+    }
+
+    /**
+     * Builds the H2 url from the db.* settings, e.g. jdbc:h2:./h2/db;CACHE_SIZE=65536;LOCK_TIMEOUT=10000
+     */
+    private static String buildUrl() {
+        StringBuilder builder = new StringBuilder(AppConfig.getString("db.url", "jdbc:h2:./h2/db"));
+        int cacheSize = AppConfig.getInt("db.cache-size-kb", 0);
+        if (cacheSize > 0) {
+            builder.append(";CACHE_SIZE=").append(cacheSize);
+        }
+        int lockTimeout = AppConfig.getInt("db.lock-timeout-ms", 0);
+        if (lockTimeout > 0) {
+            builder.append(";LOCK_TIMEOUT=").append(lockTimeout);
+        }
+        String options = AppConfig.getString("db.options", "");
+        if (!options.isEmpty()) {
+            builder.append(options.startsWith(";") ? "" : ";").append(options);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Switches between production mode (keep the existing data) and test mode (reset the database on first use).
+     * It must be called before the first connection is made.
+     *
+     * @param production true for production mode
+     */
+    public static void setProductionMode(boolean production) {
+        productionMode = production;
+    }
+
     /**
      * @return an active connection to the database and set up the database tables if this is the first time the
      * Connection has been established
@@ -40,8 +206,20 @@ public class ConnectionUtil {
     public static Connection getConnection(){
         if(connection == null){
             try {
+                startDatabaseServer();
                 connection = DriverManager.getConnection(url, username, password);
-                resetTestDatabase();
+                if (productionMode) {
+                    try {
+                        openExistingDatabase();
+                    } catch (IllegalStateException e) {
+//                        do not keep a connection to a database we refused to use
+                        connection.close();
+                        connection = null;
+                        throw e;
+                    }
+                } else {
+                    resetTestDatabase();
+                }
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -51,21 +229,146 @@ public class ConnectionUtil {
     }
     /**
      * For the purpose of testing, we will need to drop and recreate our database tables to keep it consistent across
-     * all tests. The method will read the sql file in resources. This will be performed before every test.
+     * all tests. The first reset runs the sql file in resources. Every later reset only empties the tables and inserts
+     * the seed rows again, which is much faster than dropping and recreating the tables before every test.
      */
     public static void resetTestDatabase(){
-//        if there is no connection, use the getConnection method to set it up
+//        if there is no connection, set it up without going through the reset in getConnection a second time
         if(connection == null){
-            getConnection();
-        }else {
-//            otherwise, recreate the tables without setting up a new connection
             try {
-                FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-                RunScript.execute(connection, sqlReader);
-            } catch (SQLException | FileNotFoundException e) {
+                startDatabaseServer();
+                connection = DriverManager.getConnection(url, username, password);
+            } catch (SQLException e) {
                 e.printStackTrace();
+                return;
+            }
+        }
+        try {
+            loadScript();
+            if (schemaCreated) {
+//                the tables already match the script, so only the data has to be put back
+                truncateTables();
+                RunScript.execute(connection, new StringReader(seedScript));
+            } else {
+                RunScript.execute(connection, new StringReader(schemaScript));
+                schemaCreated = true;
+            }
+//            the extra shards only hold messages, so emptying their message tables is enough
+            for (int shard = 1; shard < AppConfig.getInt("db.shards", 1); shard++) {
+                try (Statement statement = getShardConnection(shard).createStatement()) {
+                    statement.execute("TRUNCATE TABLE message RESTART IDENTITY");
+                }
+            }
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+        }
+        resetListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Opens the database in production mode. An empty database gets the tables from SocialMedia.sql. A database created
+     * before schema versions existed is adopted as version 1, because its tables are the same. Older versions are
+     * upgraded with MIGRATIONS, and any newer version is refused, so the application never runs against tables it does
+     * not understand. A database holding only some of the tables is refused too, since creating them from the script
+     * would drop the ones that are there.
+     */
+    private static void openExistingDatabase() throws SQLException {
+        boolean hasMessage = tableExists("MESSAGE");
+        boolean hasAccount = tableExists("ACCOUNT");
+        if (!hasMessage && !hasAccount && !tableExists("MESSAGE_CHANGE") && !tableExists("SCHEMA_VERSION")) {
+            resetTestDatabase();
+            return;
+        }
+        if (!hasMessage || !hasAccount) {
+            String missing = hasMessage ? "account" : hasAccount ? "message" : "account or message";
+            throw new IllegalStateException("The database has no " + missing + " table but has other tables of the "
+                    + "application. Restore the missing table before starting the application.");
+        }
+        try (Statement statement = connection.createStatement()) {
+            if (!tableExists("SCHEMA_VERSION")) {
+                statement.executeUpdate("create table schema_version (version int)");
+                statement.executeUpdate("insert into schema_version (version) values (1)");
+            }
+            int version;
+            try (ResultSet rs = statement.executeQuery("select max(version) from schema_version")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+//            upgrade an older database one version at a time
+            while (version >= 1 && version < SCHEMA_VERSION) {
+                statement.executeUpdate(MIGRATIONS[version - 1]);
+                version++;
+                statement.executeUpdate("insert into schema_version (version) values (" + version + ")");
+                System.out.println("Migrated the database to schema version " + version);
+            }
+            if (version != SCHEMA_VERSION) {
+                throw new IllegalStateException("Database schema version " + version + " does not match the expected version "
+                        + SCHEMA_VERSION + ". Migrate the database before starting the application.");
+            }
+        }
+    }
+
+    /**
+     * @param table the table name in upper case
+     * @return true if the table exists in the current schema
+     */
+    private static boolean tableExists(String table) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(null, null, table, null)) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Empties every table created by SocialMedia.sql and restarts its auto increment ids, so the seed data gets the
+     * same ids as after a full reset.
+     */
+    private static void truncateTables() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+            try {
+                for (String table : tables) {
+                    statement.execute("TRUNCATE TABLE " + table + " RESTART IDENTITY");
+                }
+            } finally {
+                statement.execute("SET REFERENTIAL_INTEGRITY TRUE");
+            }
+        }
+    }
+
+    /**
+     * Reads SocialMedia.sql from the classpath (or from src/main/resources when running from the project folder) the
+     * first time it is needed, and splits out its table names and insert statements for the fast reset.
+     */
+    private static void loadScript() throws IOException {
+        if (schemaScript != null) {
+            return;
+        }
+        String script;
+        try (InputStream in = ConnectionUtil.class.getResourceAsStream("/SocialMedia.sql")) {
+            if (in != null) {
+                script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } else {
+                script = Files.readString(Path.of("src/main/resources/SocialMedia.sql"));
+            }
+        }
+
+        List<String> createdTables = new ArrayList<>();
+        StringBuilder seed = new StringBuilder();
+        Matcher createTable = Pattern.compile("create\\s+table\\s+(\\w+)", Pattern.CASE_INSENSITIVE).matcher(script);
+        while (createTable.find()) {
+            if (!createTable.group(1).equalsIgnoreCase("schema_version")) {
+                createdTables.add(createTable.group(1));
+            }
+        }
+        for (String sql : script.split(";")) {
+            String statement = sql.trim();
+            String lower = statement.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("insert") && !lower.startsWith("insert into schema_version")) {
+                seed.append(statement).append(";\n");
             }
         }
+        tables = createdTables;
+        seedScript = seed.toString();
+        schemaScript = script;
     }
 
 }
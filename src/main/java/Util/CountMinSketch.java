@@ -0,0 +1,114 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * Approximate counts of a stream of items in a fixed amount of memory, however many distinct items there are.
+ *
+ * The sketch is a table of depth rows of width counters. Adding an item adds to one counter in every row, chosen by a
+ * different hash per row, and an item's estimate is the smallest of its counters. Collisions can only add to a
+ * counter, so an estimate is never below the true count, and with probability 1 - 2^-depth it is at most
+ * 2 * total / width above it.
+ *
+ * Items are 64 bit keys: ids can be added as they are, and strings through hash(String).
+ *
+ * Not thread safe; callers synchronize.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    /**
+     * Row r of the table is counters[r * width, (r + 1) * width).
+     */
+    private final int[] counters;
+    private long total = 0;
+
+    /**
+     * @param width the counters per row, rounded up to a power of two
+     * @param depth the number of rows
+     */
+    public CountMinSketch(int width, int depth) {
+        int roundedWidth = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = roundedWidth - 1;
+        this.counters = new int[roundedWidth * depth];
+    }
+
+    /**
+     * @param text a string to count
+     * @return a 64 bit key for the string
+     */
+    public static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Adds to the count of an item.
+     *
+     * @param item  the key of the item
+     * @param count how much to add
+     */
+    public void add(long item, int count) {
+        for (int row = 0; row < depth; row++) {
+            int slot = row * (mask + 1) + slot(item, row);
+            // Saturate instead of wrapping around, so a counter never reads as small
+            counters[slot] = (int) Math.min(Integer.MAX_VALUE, (long) counters[slot] + count);
+        }
+        total += count;
+    }
+
+    /**
+     * @param item the key of the item
+     * @return an estimate of the item's count, never below the true count
+     */
+    public int estimate(long item) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * (mask + 1) + slot(item, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * @return the sum of every count added
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Halves every count, so old additions weigh less than new ones; repeated every so many additions this turns the
+     * counts into a decaying frequency. total() is halved too, ignoring the rounding of each counter.
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] >>>= 1;
+        }
+        total >>>= 1;
+    }
+
+    /**
+     * Sets every count back to 0.
+     */
+    public void clear() {
+        Arrays.fill(counters, 0);
+        total = 0;
+    }
+
+    /**
+     * Hashes an item for one row: the item is mixed with a per row seed and the bits are spread (the finalizer of
+     * MurmurHash3), so the rows choose independent counters.
+     */
+    private int slot(long item, int row) {
+        long hash = item + (row + 1) * 0x9e3779b97f4a7c15L;
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) hash & mask;
+    }
+}
@@ -0,0 +1,178 @@
+package Util;
+
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip and deflate compression of response bodies, negotiated from the Accept-Encoding request header.
+ *
+ * Javalin's own compression is turned off in favour of this after-handler, which adds a minimum size below which
+ * compressing is not worth the CPU (a small body can even grow), a configurable level, and a pool of Deflaters:
+ * each Deflater holds native zlib memory that is only freed by end() or finalization, so creating one per response
+ * is costly under load. Bodies that a handler already compressed, such as the precompressed bodies of the
+ * ResponseCache, are left as they are.
+ *
+ * Settings: server.compression.*.
+ */
+public class ResponseCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final boolean ENABLED = AppConfig.getBoolean("server.compression.enabled", true);
+    private static final int MIN_BYTES = AppConfig.getInt("server.compression.min-bytes", 1024);
+    private static final int LEVEL = AppConfig.getInt("server.compression.level", 6);
+    private static final int POOL_SIZE = AppConfig.getInt("server.compression.pool-size", 32);
+
+    /**
+     * Deflaters writing raw deflate data, which gzip wraps in its own header and trailer.
+     */
+    private static final BlockingQueue<Deflater> RAW_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    /**
+     * Deflaters writing the zlib format that Content-Encoding: deflate means.
+     */
+    private static final BlockingQueue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * Compresses the body of a response in place when the client accepts it and it is worth it. Register with
+     * app.after().
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     */
+    public static void compress(Context ctx) throws IOException {
+        if (ctx.res().getHeader("Content-Encoding") != null || !compressible(ctx.res().getContentType())) {
+            return;
+        }
+        InputStream result = ctx.resultInputStream();
+        if (result == null) {
+            return;
+        }
+        byte[] body = result.readAllBytes();
+        String encoding = negotiate(ctx);
+        if (encoding == null || body.length < MIN_BYTES) {
+            ctx.result(body);
+            return;
+        }
+        ctx.header("Content-Encoding", encoding);
+        ctx.result(compress(body, encoding));
+    }
+
+    /**
+     * Picks the encoding for a response and notes on it that the choice depends on Accept-Encoding, so shared caches
+     * keep the variants apart.
+     *
+     * @param ctx The Javalin Context object manages information about both the HTTP request and response.
+     * @return GZIP or DEFLATE, whichever the client accepts (gzip when both), or null to send the body as it is
+     */
+    public static String negotiate(Context ctx) {
+        ctx.header("Vary", "Accept-Encoding");
+        String accept = ctx.header("Accept-Encoding");
+        if (!ENABLED || accept == null) {
+            return null;
+        }
+        // null while a coding is not named, otherwise whether it is acceptable
+        Boolean gzip = null;
+        Boolean deflate = null;
+        Boolean any = null;
+        for (String part : accept.toLowerCase(Locale.ROOT).split(",")) {
+            String[] coding = part.trim().split(";");
+            // q=0 means "not acceptable"
+            boolean accepted = coding.length < 2 || !coding[1].trim().matches("q\\s*=\\s*0(\\.0*)?");
+            String name = coding[0].trim();
+            if (name.equals(GZIP)) {
+                gzip = accepted;
+            } else if (name.equals(DEFLATE)) {
+                deflate = accepted;
+            } else if (name.equals("*")) {
+                any = accepted;
+            }
+        }
+        // * only stands for the codings not named
+        boolean anyAccepted = Boolean.TRUE.equals(any);
+        if (gzip == null ? anyAccepted : gzip) {
+            return GZIP;
+        }
+        return (deflate == null ? anyAccepted : deflate) ? DEFLATE : null;
+    }
+
+    /**
+     * @param bodyLength the length of an uncompressed body
+     * @return true if a body that long is worth compressing
+     */
+    public static boolean worthCompressing(int bodyLength) {
+        return bodyLength >= MIN_BYTES;
+    }
+
+    /**
+     * @param body     the bytes to compress
+     * @param encoding GZIP or DEFLATE
+     * @return the compressed bytes
+     */
+    public static byte[] compress(byte[] body, String encoding) {
+        boolean gzip = GZIP.equals(encoding);
+        BlockingQueue<Deflater> pool = gzip ? RAW_DEFLATERS : ZLIB_DEFLATERS;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(LEVEL, gzip);
+        }
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            int headerLength = gzip ? GZIP_HEADER.length : 0;
+            byte[] out = new byte[headerLength + body.length / 2 + 64];
+            int length = headerLength;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!gzip) {
+                return Arrays.copyOf(out, length);
+            }
+            System.arraycopy(GZIP_HEADER, 0, out, 0, headerLength);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            byte[] gzipped = Arrays.copyOf(out, length + 8);
+            writeIntLE(gzipped, length, (int) crc.getValue());
+            writeIntLE(gzipped, length + 4, body.length);
+            return gzipped;
+        } catch (RuntimeException e) {
+            deflater.end();
+            deflater = null;
+            throw new UncheckedIOException(new IOException("Could not compress a response", e));
+        } finally {
+            if (deflater != null) {
+                deflater.reset();
+                if (!pool.offer(deflater)) {
+                    // The pool is full: free the native memory now instead of waiting for the garbage collector
+                    deflater.end();
+                }
+            }
+        }
+    }
+
+    private static boolean compressible(String contentType) {
+        // Server-Sent Events are written as they happen, not as one body
+        return contentType != null && (contentType.startsWith("application/json") || contentType.startsWith("text/"))
+                && !contentType.startsWith("text/event-stream");
+    }
+
+    private static void writeIntLE(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) value;
+        bytes[at + 1] = (byte) (value >>> 8);
+        bytes[at + 2] = (byte) (value >>> 16);
+        bytes[at + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,122 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simple TCP proxy that hands each new client connection to the next backend in turn. It works below HTTP, so all
+ * requests on one keep-alive connection go to the same backend. A backend that refuses the connection is skipped, so
+ * clients are not affected while one API process is restarting.
+ */
+public class RoundRobinProxy {
+
+    /**
+     * How long to wait for a backend to accept a connection before trying the next one.
+     */
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private final int port;
+    private final List<InetSocketAddress> backends;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "RoundRobinProxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocket serverSocket;
+
+    /**
+     * @param port     the port clients connect to
+     * @param backends the API processes to spread connections over
+     */
+    public RoundRobinProxy(int port, List<InetSocketAddress> backends) {
+        this.port = port;
+        this.backends = backends;
+    }
+
+    /**
+     * Opens the listening socket and starts accepting connections on a background thread.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port);
+        threads.execute(this::acceptLoop);
+        System.out.println("Round-robin proxy listening on port " + port + " for " + backends);
+    }
+
+    /**
+     * Closes the listening socket. Connections that are already open are left to finish.
+     */
+    public void stop() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                threads.execute(() -> handle(client));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Connects the client to the first backend that accepts, starting from the next one in round-robin order, and
+     * copies bytes in both directions until either side closes.
+     */
+    private void handle(Socket client) {
+        Socket backend = null;
+        int start = Math.floorMod(next.getAndIncrement(), backends.size());
+        for (int i = 0; i < backends.size() && backend == null; i++) {
+            Socket candidate = new Socket();
+            try {
+                candidate.connect(backends.get((start + i) % backends.size()), CONNECT_TIMEOUT_MS);
+                backend = candidate;
+            } catch (IOException e) {
+                closeQuietly(candidate);
+            }
+        }
+        if (backend == null) {
+            closeQuietly(client);
+            return;
+        }
+        Socket connected = backend;
+        threads.execute(() -> pipe(client, connected));
+        pipe(connected, client);
+    }
+
+    private static void pipe(Socket from, Socket to) {
+        byte[] buffer = new byte[16 * 1024];
+        try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // one side closed the connection, which ends the copy
+        } finally {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do with a socket that will not close
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package Util;
+
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * A Jetty server whose thread pool and connectors are sized from AppConfig.
+ *
+ * Javalin only creates its own connector, on the port passed to app.start(port), when the server has none. This class
+ * swaps that connector for one with the configured number of acceptors and selectors and the configured timeouts,
+ * keeping the host and port Javalin chose, so app.start(port) keeps working as before.
+ */
+public class TunedServer extends Server {
+
+    /**
+     * @return a server with a request thread pool sized from the server.threads.* settings
+     */
+    public static TunedServer create() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(
+                AppConfig.getInt("server.threads.max", 200),
+                AppConfig.getInt("server.threads.min", 8),
+                AppConfig.getInt("server.threads.idle-timeout-ms", 60000));
+        threadPool.setName("JettyServerThreadPool");
+        return new TunedServer(threadPool);
+    }
+
+    private TunedServer(QueuedThreadPool threadPool) {
+        super(threadPool);
+    }
+
+    /**
+     * Replaces every plain ServerConnector with a tuned copy that keeps its host, port and connection factories.
+     */
+    @Override
+    public void setConnectors(Connector[] connectors) {
+        if (connectors != null) {
+            for (int i = 0; i < connectors.length; i++) {
+                if (connectors[i] instanceof ServerConnector) {
+                    connectors[i] = tune((ServerConnector) connectors[i]);
+                }
+            }
+        }
+        super.setConnectors(connectors);
+    }
+
+    private ServerConnector tune(ServerConnector original) {
+        ConnectionFactory[] factories = original.getConnectionFactories().toArray(new ConnectionFactory[0]);
+        for (ConnectionFactory factory : factories) {
+            if (factory instanceof HttpConnectionFactory) {
+                ((HttpConnectionFactory) factory).getHttpConfiguration()
+                        .setRequestHeaderSize(AppConfig.getInt("server.max-request-header-size", 8192));
+            }
+        }
+        ServerConnector connector = new ServerConnector(this,
+                AppConfig.getInt("server.acceptors", -1),
+                AppConfig.getInt("server.selectors", -1),
+                factories);
+        connector.setHost(original.getHost());
+        connector.setPort(original.getPort());
+        connector.setIdleTimeout(AppConfig.getLong("server.idle-timeout-ms", 30000));
+        return connector;
+    }
+}
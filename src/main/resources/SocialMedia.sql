@@ -1,5 +1,10 @@
+drop table if exists message_change;
 drop table if exists message;
 drop table if exists account;
+drop table if exists schema_version;
+create table schema_version (
+    version int
+);
 create table account (
     account_id int primary key auto_increment,
     username varchar(255) unique,
@@ -12,6 +17,14 @@ create table message (
     time_posted_epoch bigint,
     foreign key (posted_by) references  account(account_id)
 );
+create index message_time_posted on message (time_posted_epoch);
+create table message_change (
+    seq bigint primary key auto_increment,
+    message_id int,
+    account_id int,
+    change_type varchar(16)
+);
 
+insert into schema_version (version) values (3);
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
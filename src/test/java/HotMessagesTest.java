@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.HotMessage;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class HotMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. The reset also clears the read counts.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<HotMessage> hotMessages(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<HotMessage>>(){});
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/admin/hot-messages after reading message 1 three times and
+     * message 2 once
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: message 1 with 3 reads, then message 2 with 1 read
+     */
+    @Test
+    public void hotMessagesByReads() throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            get("/messages/1");
+        }
+        get("/messages/2");
+
+        List<HotMessage> actualResult = hotMessages("/admin/hot-messages");
+        Assert.assertEquals(2, actualResult.size());
+        Assert.assertEquals(1, actualResult.get(0).getMessage_id());
+        Assert.assertEquals(3, actualResult.get(0).getReads());
+        Assert.assertEquals(2, actualResult.get(1).getMessage_id());
+        Assert.assertEquals(1, actualResult.get(1).getReads());
+
+        Assert.assertEquals(1, hotMessages("/admin/hot-messages?limit=1").size());
+        Assert.assertEquals(400, get("/admin/hot-messages?limit=0").statusCode());
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.MessageStats;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Changes made by another API process are simulated by writing to the message table and the message_change table
+ * directly, as that process would; they only exist with storage.engine=jdbc. The bus is only on with
+ * service.invalidation.enabled=true, which the invalidation-test execution sets.
+ */
+public class InvalidationBusTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        Assume.assumeTrue(AppConfig.getString("storage.engine", "jdbc").equals("jdbc"));
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Message message(int messageId) throws IOException, InterruptedException {
+        return objectMapper.readValue(get("/messages/" + messageId).body(), Message.class);
+    }
+
+    private List<Message> messagesOf(int accountId) throws IOException, InterruptedException {
+        return objectMapper.readValue(get("/accounts/" + accountId + "/messages").body(),
+                new TypeReference<List<Message>>() {});
+    }
+
+    private MessageStats stats(int accountId) throws IOException, InterruptedException {
+        return objectMapper.readValue(get("/accounts/" + accountId + "/stats").body(), MessageStats.class);
+    }
+
+    /**
+     * Runs sql on the shared database without telling this process, the way another API process writes.
+     */
+    private void executeElsewhere(String... sql) throws SQLException {
+        Connection connection = ConnectionUtil.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            for (String each : sql) {
+                statement.executeUpdate(each);
+            }
+        }
+    }
+
+    /**
+     * Waits long enough for the InvalidationBus to poll message_change a few times.
+     */
+    private void awaitPoll() throws InterruptedException {
+        Thread.sleep(AppConfig.getLong("service.invalidation.poll-ms", 100) * 5);
+    }
+
+    /**
+     * Another process updates message 1 and records the change: once polled, this process forgets its cached copy.
+     */
+    @Test
+    public void updateRecordedByAnotherProcessInvalidatesTheCache() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals("test message 1", message(1).getMessage_text());
+
+        executeElsewhere("UPDATE message SET message_text = 'changed elsewhere' WHERE message_id = 1");
+        Assert.assertEquals("an unrecorded change is not seen, so the message is served from the cache",
+                "test message 1", message(1).getMessage_text());
+
+        executeElsewhere("INSERT INTO message_change (message_id, account_id, change_type) VALUES (1, 1, 'update')");
+        awaitPoll();
+        Assert.assertEquals("changed elsewhere", message(1).getMessage_text());
+        Assert.assertEquals("changed elsewhere", messagesOf(1).get(0).getMessage_text());
+    }
+
+    /**
+     * Another process inserts and deletes messages: the account timeline and the statistics follow once polled.
+     */
+    @Test
+    public void insertAndDeleteRecordedByAnotherProcessReachTheIndexes() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals(1, messagesOf(1).size());
+        Assert.assertEquals(1, stats(1).getMessage_count());
+
+        executeElsewhere(
+                "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (1, 'posted elsewhere', 1669947800)",
+                "INSERT INTO message_change (message_id, account_id, change_type) VALUES (2, 1, 'insert')");
+        awaitPoll();
+        List<Message> timeline = messagesOf(1);
+        Assert.assertEquals(2, timeline.size());
+        Assert.assertEquals("posted elsewhere", message(2).getMessage_text());
+        Assert.assertEquals(2, stats(1).getMessage_count());
+        Assert.assertEquals(Long.valueOf(1669947800), stats(1).getLast_post_epoch());
+
+        executeElsewhere(
+                "DELETE FROM message WHERE message_id = 1",
+                "INSERT INTO message_change (message_id, account_id, change_type) VALUES (1, 1, 'delete')");
+        awaitPoll();
+        Assert.assertEquals(1, messagesOf(1).size());
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals("", get("/messages/1").body());
+        Assert.assertEquals(1, stats(1).getMessage_count());
+        Assert.assertEquals(Long.valueOf(1669947800), stats(1).getFirst_post_epoch());
+    }
+
+    /**
+     * A change made through this process reaches its listeners right away and is recorded for the other processes;
+     * the poll skips the rows this process wrote, so nothing is counted twice.
+     */
+    @Test
+    public void localChangesAreRecordedAndCountedOnce() throws IOException, InterruptedException, SQLException {
+        HttpResponse<String> posted = send("POST", "/messages",
+                "{\"posted_by\":1, \"message_text\": \"posted here\", \"time_posted_epoch\": 1669947800}");
+        Assert.assertEquals(200, posted.statusCode());
+        Assert.assertEquals(2, stats(1).getMessage_count());
+        Assert.assertEquals(2, messagesOf(1).size());
+
+        send("PATCH", "/messages/2", "{\"message_text\": \"edited here\"}");
+        send("DELETE", "/messages/1", "");
+        awaitPoll();
+
+        Assert.assertEquals(1, stats(1).getMessage_count());
+        List<Message> timeline = messagesOf(1);
+        Assert.assertEquals(1, timeline.size());
+        Assert.assertEquals("edited here", timeline.get(0).getMessage_text());
+        Assert.assertEquals("edited here", message(2).getMessage_text());
+        try (Statement statement = ConnectionUtil.getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM message_change")) {
+            rs.next();
+            Assert.assertEquals(3, rs.getInt(1));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.LogMessageStore;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Opens a LogMessageStore on a directory of its own, changes it, and opens the directory again to check that replaying
+ * the segments gives back exactly the messages that were there. An empty log starts with the seed message of the reset
+ * database, message 1 (37 bytes in the log).
+ */
+public class LogMessageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = folder.newFolder("messagelog").toPath();
+    }
+
+    /**
+     * Small segments, so a few records fill one, and compaction of any segment less than half live.
+     */
+    private LogMessageStore open() {
+        return new LogMessageStore(directory, 100, false, 0.5);
+    }
+
+    private Message insert(LogMessageStore store, String text) {
+        return store.insertMessage(new Message(1, text, 1669947800L));
+    }
+
+    @Test
+    public void insertUpdateAndDeleteSurviveReopening() {
+        LogMessageStore store = open();
+        Message kept = insert(store, "kept");
+        Message updated = insert(store, "before update");
+        Message deleted = insert(store, "deleted");
+        store.updateMessageText(updated.getMessage_id(), "after update");
+        store.deleteMessage(deleted.getMessage_id());
+
+        LogMessageStore reopened = open();
+        Assert.assertEquals(kept, reopened.getMessageById(kept.getMessage_id()));
+        Assert.assertEquals("after update", reopened.getMessageById(updated.getMessage_id()).getMessage_text());
+        Assert.assertNull(reopened.getMessageById(deleted.getMessage_id()));
+        Assert.assertEquals(3, reopened.getAllMessages().size());
+    }
+
+    @Test
+    public void compactedSegmentsKeepTheLatestVersionOfEveryMessage() {
+        LogMessageStore store = open();
+        Message message = insert(store, "first version of a long enough message");
+        for (int version = 2; version <= 10; version++) {
+            store.updateMessageText(message.getMessage_id(), "version " + version + " of a long enough message");
+        }
+        List<Message> before = store.getAllMessages();
+        store.compact();
+        Assert.assertEquals(before, store.getAllMessages());
+
+        LogMessageStore reopened = open();
+        Assert.assertEquals(before, reopened.getAllMessages());
+        Assert.assertEquals("version 10 of a long enough message",
+                reopened.getMessageById(message.getMessage_id()).getMessage_text());
+    }
+
+    /**
+     * The first PUT of message 2 stays in segment 1, which is mostly live and never compacted. Its update and its
+     * tombstone go to segment 2, which compaction removes once segment 3 is started; the tombstone must move with it,
+     * or replaying segment 1 brings the message back with its text from before the update.
+     */
+    @Test
+    public void deletedMessageStaysDeletedAfterCompactionAndReopening() {
+        LogMessageStore store = open();
+        Message deleted = insert(store, "original");
+        Message kept = insert(store, "x");
+        store.updateMessageText(deleted.getMessage_id(), "updated");
+        store.deleteMessage(deleted.getMessage_id());
+        Message last = insert(store, "a message too long to fit in the rest of segment two");
+        store.compact();
+        Assert.assertNull(store.getMessageById(deleted.getMessage_id()));
+
+        LogMessageStore reopened = open();
+        Assert.assertNull(reopened.getMessageById(deleted.getMessage_id()));
+        Assert.assertEquals(kept, reopened.getMessageById(kept.getMessage_id()));
+        Assert.assertEquals(last, reopened.getMessageById(last.getMessage_id()));
+        Assert.assertEquals(3, reopened.getAllMessages().size());
+    }
+
+    /**
+     * The newest message is deleted in segment 2, and every older segment is compacted away: its tombstone is all that
+     * tells a replay its id was used.
+     */
+    @Test
+    public void idOfTheNewestDeletedMessageIsNotReusedAfterReopening() {
+        LogMessageStore store = open();
+        Message deleted = insert(store, "the newest message, deleted, too long for segment one");
+        store.deleteMessage(deleted.getMessage_id());
+        store.updateMessageText(1, "the seed message, updated into segment three");
+        store.compact();
+
+        LogMessageStore reopened = open();
+        Assert.assertNull(reopened.getMessageById(deleted.getMessage_id()));
+        Assert.assertEquals(deleted.getMessage_id() + 1, insert(reopened, "next").getMessage_id());
+    }
+
+    /**
+     * A PUT record is 23 bytes and its text, so with 100-byte segments 77 bytes of text is the most that fits; longer
+     * texts are refused rather than written past the end of a segment, and so is anything over the 255 of the schema.
+     */
+    @Test
+    public void textsThatCannotBeStoredAreRefused() {
+        LogMessageStore store = open();
+        Message message = insert(store, "x".repeat(77));
+        Assert.assertNotNull(message);
+        Assert.assertNull(insert(store, "x".repeat(78)));
+        Assert.assertNull(insert(store, "x".repeat(256)));
+        Assert.assertFalse(store.updateMessageText(message.getMessage_id(), "y".repeat(78)));
+
+        LogMessageStore reopened = open();
+        Assert.assertEquals(message, reopened.getMessageById(message.getMessage_id()));
+        Assert.assertEquals(2, reopened.getAllMessages().size());
+    }
+}
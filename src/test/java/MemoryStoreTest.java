@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.MemoryStore;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Opens a MemoryStore on a directory of its own, changes it, and opens the directory again to check what recovery
+ * rebuilds from the snapshots and write-ahead logs. An empty directory starts with the seed account and message of the
+ * reset database.
+ */
+public class MemoryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = folder.newFolder("memorystore").toPath();
+    }
+
+    private MemoryStore open() {
+        return new MemoryStore(directory, "always");
+    }
+
+    private Message insert(MemoryStore store, String text) {
+        return store.insertMessage(new Message(1, text, 1669947800L));
+    }
+
+    /**
+     * @return the names of the files in the store directory, sorted
+     */
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return the newest write-ahead log, the one the last opened store appends to
+     */
+    private Path newestLog() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("wal-"))
+                    .max((a, b) -> Integer.compare(logNumber(a), logNumber(b)))
+                    .orElseThrow();
+        }
+    }
+
+    private static int logNumber(Path log) {
+        String name = log.getFileName().toString();
+        return Integer.parseInt(name.substring("wal-".length(), name.length() - ".log".length()));
+    }
+
+    @Test
+    public void writesAreReplayedFromTheLog() {
+        MemoryStore store = open();
+        Account account = store.registerAccount(new Account("recovered", "password"));
+        Message kept = insert(store, "kept");
+        Message updated = insert(store, "before update");
+        Message deleted = insert(store, "deleted");
+        store.updateMessageText(updated.getMessage_id(), "after update");
+        store.deleteMessage(deleted.getMessage_id());
+
+        MemoryStore reopened = open();
+        Assert.assertEquals(account, reopened.getAccountById(account.getAccount_id()));
+        Assert.assertEquals(account, reopened.getAccountByUserNameAndPassword("recovered", "password"));
+        Assert.assertEquals(kept, reopened.getMessageById(kept.getMessage_id()));
+        Assert.assertEquals("after update", reopened.getMessageById(updated.getMessage_id()).getMessage_text());
+        Assert.assertNull(reopened.getMessageById(deleted.getMessage_id()));
+        Assert.assertEquals(3, reopened.getAllMessages().size());
+        Assert.assertEquals("ids are not reused", deleted.getMessage_id() + 1, insert(reopened, "next").getMessage_id());
+    }
+
+    @Test
+    public void snapshotAndTheLogAfterItAreRecovered() throws IOException {
+        MemoryStore store = open();
+        Message beforeSnapshot = insert(store, "before the snapshot");
+        Message deletedBeforeSnapshot = insert(store, "deleted before the snapshot");
+        store.deleteMessage(deletedBeforeSnapshot.getMessage_id());
+        store.snapshot();
+        Assert.assertEquals("older logs are deleted", List.of("snapshot-2.bin", "wal-2.log"), files());
+
+        Message afterSnapshot = insert(store, "after the snapshot");
+        store.updateMessageText(beforeSnapshot.getMessage_id(), "updated after the snapshot");
+        List<Message> expected = store.getAllMessages();
+
+        MemoryStore reopened = open();
+        Assert.assertEquals(expected, reopened.getAllMessages());
+        Assert.assertEquals("updated after the snapshot",
+                reopened.getMessageById(beforeSnapshot.getMessage_id()).getMessage_text());
+        Assert.assertEquals(afterSnapshot, reopened.getMessageById(afterSnapshot.getMessage_id()));
+        Assert.assertNull(reopened.getMessageById(deletedBeforeSnapshot.getMessage_id()));
+        Assert.assertEquals(afterSnapshot.getMessage_id() + 1, insert(reopened, "next").getMessage_id());
+    }
+
+    /**
+     * A crash in the middle of an append leaves part of the last record: it is ignored, and everything before it kept.
+     */
+    @Test
+    public void truncatedLastRecordIsIgnored() throws IOException {
+        MemoryStore store = open();
+        Message first = insert(store, "first");
+        Message torn = insert(store, "torn by a crash");
+        try (RandomAccessFile log = new RandomAccessFile(newestLog().toFile(), "rw")) {
+            log.setLength(log.length() - 3);
+        }
+
+        MemoryStore reopened = open();
+        Assert.assertEquals(first, reopened.getMessageById(first.getMessage_id()));
+        Assert.assertNull(reopened.getMessageById(torn.getMessage_id()));
+        Assert.assertEquals(2, reopened.getAllMessages().size());
+
+        // New writes go to a new log, after the torn one, and are recovered too
+        Message next = insert(reopened, "after the crash");
+        MemoryStore again = open();
+        Assert.assertEquals(next, again.getMessageById(next.getMessage_id()));
+        Assert.assertEquals(3, again.getAllMessages().size());
+    }
+
+    /**
+     * A last record whose bytes do not match its CRC is ignored.
+     */
+    @Test
+    public void corruptLastRecordIsIgnored() throws IOException {
+        MemoryStore store = open();
+        Message first = insert(store, "first");
+        Message corrupt = insert(store, "corrupted on disk");
+        try (RandomAccessFile log = new RandomAccessFile(newestLog().toFile(), "rw")) {
+            // A byte of the message text, just before the CRC at the end
+            long position = log.length() - 4 - 2;
+            log.seek(position);
+            int value = log.read();
+            log.seek(position);
+            log.write(value ^ 0xFF);
+        }
+
+        MemoryStore reopened = open();
+        Assert.assertEquals(first, reopened.getMessageById(first.getMessage_id()));
+        Assert.assertNull(reopened.getMessageById(corrupt.getMessage_id()));
+        Assert.assertEquals(2, reopened.getAllMessages().size());
+    }
+
+    /**
+     * A length no record can have, as left by a torn write of the length itself, ends the replay.
+     */
+    @Test
+    public void impossibleRecordLengthIsIgnored() throws IOException {
+        MemoryStore store = open();
+        Message first = insert(store, "first");
+        try (RandomAccessFile log = new RandomAccessFile(newestLog().toFile(), "rw")) {
+            log.seek(log.length());
+            log.writeInt(Integer.MAX_VALUE);
+            log.write(new byte[]{1, 2, 3});
+        }
+
+        MemoryStore reopened = open();
+        Assert.assertEquals(first, reopened.getMessageById(first.getMessage_id()));
+        Assert.assertEquals(2, reopened.getAllMessages().size());
+    }
+}
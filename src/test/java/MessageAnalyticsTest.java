@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.AnalyticsReport;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageAnalyticsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. The reset also takes a new analytics snapshot.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private AnalyticsReport report(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), AnalyticsReport.class);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/analytics/top-posters
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one row for account 1 with its one seeded message
+     */
+    @Test
+    public void topPosters() throws IOException, InterruptedException {
+        AnalyticsReport actualResult = report("/analytics/top-posters");
+        Assert.assertEquals(1, actualResult.getMessage_count());
+        Assert.assertEquals(List.of(Map.of("account_id", 1L, "message_count", 1L)), actualResult.getRows());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/analytics/posts-per-bucket?bucket=86400
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one day bucket holding the seeded message
+     */
+    @Test
+    public void postsPerBucket() throws IOException, InterruptedException {
+        AnalyticsReport actualResult = report("/analytics/posts-per-bucket?bucket=86400");
+        long day = 1669947792L / 86400 * 86400;
+        Assert.assertEquals(List.of(Map.of("bucket_start", day, "message_count", 1L)), actualResult.getRows());
+
+        Assert.assertTrue(report("/analytics/posts-per-bucket?since=1669947793").getRows().isEmpty());
+        Assert.assertEquals(400, get("/analytics/posts-per-bucket?bucket=0").statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/analytics/length-histogram?bin=10
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: bins 0-9 and 10-19, the seeded message of 14 characters in the second
+     */
+    @Test
+    public void lengthHistogram() throws IOException, InterruptedException {
+        AnalyticsReport actualResult = report("/analytics/length-histogram?bin=10");
+        Assert.assertEquals(List.of(
+                Map.of("min_length", 0L, "max_length", 9L, "message_count", 0L),
+                Map.of("min_length", 10L, "max_length", 19L, "message_count", 1L)), actualResult.getRows());
+        Assert.assertEquals(400, get("/analytics/length-histogram?bin=x").statusCode());
+    }
+}
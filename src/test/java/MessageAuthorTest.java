@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageAuthorTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Map<String, Object>> list(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<>(){});
+    }
+
+    /**
+     * Sending a GET request to localhost:8080/messages?expand=author
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: every message with an author object holding the account_id and username of its poster
+     */
+    @Test
+    public void getAllMessagesWithAuthors() throws Exception {
+        post("/register", "{\"username\": \"user2\", \"password\": \"password\"}");
+        post("/messages", "{\"posted_by\":2, \"message_text\": \"from user2\", \"time_posted_epoch\": 1669947800}");
+        post("/messages", "{\"posted_by\":1, \"message_text\": \"from testuser1\", \"time_posted_epoch\": 1669947810}");
+
+        Map<String, Object> author1 = Map.of("account_id", 1, "username", "testuser1");
+        Map<String, Object> author2 = Map.of("account_id", 2, "username", "user2");
+        List<Map<String, Object>> messages = list(get("/messages?expand=author"));
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals(Map.of("message_id", 1, "posted_by", 1, "message_text", "test message 1",
+                "time_posted_epoch", 1669947792, "author", author1), messages.get(0));
+        Assert.assertEquals(author2, messages.get(1).get("author"));
+        Assert.assertEquals(author1, messages.get(2).get("author"));
+
+        // Without expand the messages are as before
+        Assert.assertFalse(list(get("/messages")).get(0).containsKey("author"));
+    }
+
+    /**
+     * expand=author works together with fields, a time range, a single message and an account's messages, even when
+     * posted_by itself is not asked for.
+     */
+    @Test
+    public void expandWithOtherParameters() throws Exception {
+        Map<String, Object> author1 = Map.of("account_id", 1, "username", "testuser1");
+        Assert.assertEquals(List.of(Map.of("message_id", 1, "author", author1)),
+                list(get("/messages?fields=message_id&expand=author")));
+        Assert.assertEquals(List.of(Map.of("message_text", "test message 1", "author", author1)),
+                list(get("/messages?since=0&fields=message_text&expand=author")));
+        Assert.assertEquals(List.of(Map.of("message_id", 1, "author", author1)),
+                list(get("/accounts/1/messages?fields=message_id&expand=author")));
+
+        HttpResponse<String> response = get("/messages/1?expand=author");
+        Assert.assertEquals(200, response.statusCode());
+        Map<String, Object> message = objectMapper.readValue(response.body(), new TypeReference<>(){});
+        Assert.assertEquals(author1, message.get("author"));
+        Assert.assertEquals("test message 1", message.get("message_text"));
+    }
+
+    /**
+     * expand only accepts author.
+     */
+    @Test
+    public void unknownExpansion() throws Exception {
+        Assert.assertEquals(400, get("/messages?expand=password").statusCode());
+        Assert.assertEquals(400, get("/messages/1?expand=account").statusCode());
+        Assert.assertEquals(400, get("/accounts/1/messages?expand=").statusCode());
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageChangesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpRequest changes(String query) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/changes?" + query))
+                .build();
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text
+                        + "\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * GET localhost:8080/messages/changes?since=0 returns the existing messages at once, without waiting.
+     */
+    @Test
+    public void newerMessagesReturnAtOnce() throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<String> response = webClient.send(changes("since=0&wait=5000"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(List.of(new Message(1, 1, "test message 1", 1669947792)), messages(response));
+    }
+
+    /**
+     * A request with nothing newer waits until a message is inserted and then returns it; without an insert it
+     * returns an empty list once the wait is over.
+     */
+    @Test
+    public void waitsForInsert() throws Exception {
+        CompletableFuture<HttpResponse<String>> waiting = webClient.sendAsync(changes("since=1&wait=10000"),
+                HttpResponse.BodyHandlers.ofString());
+        Thread.sleep(500);
+        Assert.assertFalse(waiting.isDone());
+        postMessage("new message");
+        HttpResponse<String> response = waiting.get(2, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(List.of(new Message(2, 1, "new message", 1669947800)), messages(response));
+
+        long start = System.nanoTime();
+        response = webClient.send(changes("since=2&wait=300"), HttpResponse.BodyHandlers.ofString());
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(List.of(), messages(response));
+    }
+
+    /**
+     * Every request waiting when a message is inserted is woken with it, whatever its limit.
+     */
+    @Test
+    public void oneInsertWakesEveryWaiter() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> waiting = List.of(
+                webClient.sendAsync(changes("since=1&wait=10000"), HttpResponse.BodyHandlers.ofString()),
+                webClient.sendAsync(changes("since=1&wait=10000&limit=1"), HttpResponse.BodyHandlers.ofString()),
+                webClient.sendAsync(changes("since=1&wait=10000&limit=5"), HttpResponse.BodyHandlers.ofString()));
+        Thread.sleep(500);
+        postMessage("new message");
+        for (CompletableFuture<HttpResponse<String>> request : waiting) {
+            HttpResponse<String> response = request.get(2, TimeUnit.SECONDS);
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertEquals(List.of(new Message(2, 1, "new message", 1669947800)), messages(response));
+        }
+    }
+
+    /**
+     * since, wait and limit must be numbers that are not negative.
+     */
+    @Test
+    public void invalidParameters() throws Exception {
+        Assert.assertEquals(400, webClient.send(changes("since=abc"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(400, webClient.send(changes("wait=-1"), HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(400, webClient.send(changes("limit=0"), HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.LogMessageStore;
+import Model.Message;
+import Model.MessageEvent;
+import Service.MessageFeed;
+import Service.MessageMetaIndex;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        webClient.send(request.header("Content-Type", "application/json").build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int postedBy, String text) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy + ", \"message_text\": \"" + text
+                        + "\", \"time_posted_epoch\": 1669947800}")));
+    }
+
+    /**
+     * GET localhost:8080/messages/stream sends an insert, an update and a delete event, each once, and each with
+     * the seq as its event id.
+     */
+    @Test
+    public void serverSentEvents() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream"))
+                .header("Accept", "text/event-stream")
+                .build();
+        HttpResponse<Stream<String>> response = webClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines())
+                .get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.statusCode());
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> response.body().forEach(lines::add));
+        reader.setDaemon(true);
+        reader.start();
+        // The response headers are sent before the handler subscribes to the feed
+        Thread.sleep(500);
+
+        postMessage(1, "streamed");
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}")));
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2")).DELETE());
+        Thread.sleep(500);
+        postMessage(1, "last");
+
+        Assert.assertEquals("insert", nextEvent(lines).type);
+        MessageEvent update = nextEvent(lines);
+        Assert.assertEquals("update", update.type);
+        Assert.assertEquals(new Message(2, 1, "edited", 1669947800), update.message);
+        MessageEvent delete = nextEvent(lines);
+        Assert.assertEquals("delete", delete.type);
+        Assert.assertEquals(2, delete.message_id);
+        Assert.assertNull(delete.message);
+        MessageEvent last = nextEvent(lines);
+        Assert.assertEquals("insert", last.type);
+        Assert.assertEquals(3, last.message_id);
+        Assert.assertEquals(delete.seq + 1, last.seq);
+    }
+
+    private MessageEvent nextEvent(BlockingQueue<String> lines) throws Exception {
+        String id = null;
+        while (true) {
+            String line = lines.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("no event within 5 seconds", line);
+            if (line.startsWith("id: ")) {
+                id = line.substring(4);
+            } else if (line.startsWith("data: ")) {
+                MessageEvent event = objectMapper.readValue(line.substring(6), MessageEvent.class);
+                Assert.assertEquals(String.valueOf(event.seq), id);
+                return event;
+            }
+        }
+    }
+
+    /**
+     * The WebSocket at localhost:8080/messages/ws?account_id=2 is only sent changes to the messages of account 2.
+     */
+    @Test
+    public void webSocketWithAccountFilter() throws Exception {
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"user2\", \"password\": \"password\"}")));
+
+        BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        WebSocket socket = webClient.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:8080/messages/ws?account_id=2"), new WebSocket.Listener() {
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        frames.add(data.toString());
+                        webSocket.request(1);
+                        return null;
+                    }
+                }).get(5, TimeUnit.SECONDS);
+        // The handshake can complete before the connect handler subscribes to the feed
+        Thread.sleep(500);
+
+        postMessage(1, "from account 1");
+        postMessage(2, "from account 2");
+
+        MessageEvent event = objectMapper.readValue(frames.poll(5, TimeUnit.SECONDS), MessageEvent.class);
+        Assert.assertEquals("insert", event.type);
+        Assert.assertEquals(2, event.posted_by);
+        Assert.assertEquals("from account 2", event.message.message_text);
+        Assert.assertNull(frames.poll(500, TimeUnit.MILLISECONDS));
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A subscriber whose send blocks is dropped after the send timeout, and the only sender thread it held goes on to
+     * serve the other subscribers.
+     */
+    @Test
+    public void stalledSubscriberIsDropped() throws Exception {
+        LogMessageStore store = new LogMessageStore(folder.newFolder("messagelog").toPath(), 1 << 20, false, 0.5);
+        MessageMetaIndex metaIndex = new MessageMetaIndex(folder.newFile("meta.idx").toPath(), store);
+        MessageFeed feed = new MessageFeed(store, metaIndex, 16, 1, 200);
+
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        feed.subscribe(new MessageFeed.Subscriber() {
+            @Override
+            public void send(MessageEvent event) throws Exception {
+                sending.countDown();
+                // Like a write to a client that stopped reading, until the connection is closed
+                closed.await();
+                throw new IOException("connection closed");
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        }, 0, -1);
+        Message message = store.insertMessage(new Message(1, "stalls the first subscriber", 1669947800L));
+        feed.invalidate(message.getMessage_id(), 1);
+        Assert.assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        BlockingQueue<MessageEvent> events = new LinkedBlockingQueue<>();
+        feed.subscribe(new MessageFeed.Subscriber() {
+            @Override
+            public void send(MessageEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 0, 0);
+        Assert.assertTrue("the stalled subscriber was not dropped", closed.await(5, TimeUnit.SECONDS));
+        MessageEvent event = events.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull("the sender thread was not freed", event);
+        Assert.assertEquals(message.getMessage_id(), event.message_id);
+    }
+}
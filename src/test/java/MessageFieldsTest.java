@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageFieldsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending a GET request to localhost:8080/messages?fields=message_id,time_posted_epoch
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the messages with only those two fields
+     */
+    @Test
+    public void getAllMessagesWithFields() throws Exception {
+        HttpResponse<String> response = get("/messages?fields=message_id,time_posted_epoch");
+        Assert.assertEquals(200, response.statusCode());
+        List<Map<String, Object>> messages = objectMapper.readValue(response.body(), new TypeReference<>(){});
+        Assert.assertEquals(List.of(Map.of("message_id", 1, "time_posted_epoch", 1669947792)), messages);
+
+        response = get("/messages?since=0&fields=posted_by");
+        Assert.assertEquals(List.of(Map.of("posted_by", 1)), objectMapper.readValue(response.body(),
+                new TypeReference<List<Map<String, Object>>>(){}));
+    }
+
+    /**
+     * The fields parameter also applies to GET localhost:8080/messages/{message_id} and
+     * GET localhost:8080/accounts/{account_id}/messages, with or without a time range.
+     */
+    @Test
+    public void getMessageAndTimelineWithFields() throws Exception {
+        HttpResponse<String> response = get("/messages/1?fields=message_text");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(Map.of("message_text", "test message 1"), objectMapper.readValue(response.body(),
+                new TypeReference<Map<String, Object>>(){}));
+
+        Map<String, Object> expected = Map.of("message_id", 1, "posted_by", 1);
+        response = get("/accounts/1/messages?fields=message_id,posted_by");
+        Assert.assertEquals(List.of(expected), objectMapper.readValue(response.body(),
+                new TypeReference<List<Map<String, Object>>>(){}));
+        response = get("/accounts/1/messages?until=1669947792&fields=message_id,posted_by");
+        Assert.assertEquals(List.of(expected), objectMapper.readValue(response.body(),
+                new TypeReference<List<Map<String, Object>>>(){}));
+
+        // Asking for every field gives the same body as asking for none
+        Assert.assertEquals(get("/accounts/1/messages").body(),
+                get("/accounts/1/messages?fields=message_id,posted_by,message_text,time_posted_epoch").body());
+    }
+
+    /**
+     * A name that is not a field of a message gives a 400 Bad Request response.
+     */
+    @Test
+    public void unknownField() throws Exception {
+        Assert.assertEquals(400, get("/messages?fields=message_id,password").statusCode());
+        Assert.assertEquals(400, get("/messages/1?fields=text").statusCode());
+        Assert.assertEquals(400, get("/accounts/1/messages?fields=message_id,").statusCode());
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.MessageStats;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageStatsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private MessageStats stats(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), MessageStats.class);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/stats
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the statistics of the seeded message
+     */
+    @Test
+    public void statsOfSeededAccount() throws IOException, InterruptedException {
+        MessageStats actualResult = stats("/accounts/1/stats");
+        Assert.assertEquals(Integer.valueOf(1), actualResult.getAccount_id());
+        Assert.assertEquals(1, actualResult.getMessage_count());
+        Assert.assertEquals(Long.valueOf(1669947792), actualResult.getFirst_post_epoch());
+        Assert.assertEquals(Long.valueOf(1669947792), actualResult.getLast_post_epoch());
+        Assert.assertEquals("test message 1".length(), actualResult.getAverage_text_length(), 0.001);
+    }
+
+    /**
+     * Inserts, updates and deletes are reflected in both the account and the global statistics, and deleting the
+     * last post brings last_post_epoch back to the previous one.
+     */
+    @Test
+    public void statsFollowChanges() throws IOException, InterruptedException {
+        postMessage("abcd", 1669947800);
+        postMessage("abcdefgh", 1669950000);
+
+        MessageStats account = stats("/accounts/1/stats");
+        Assert.assertEquals(3, account.getMessage_count());
+        Assert.assertEquals(Long.valueOf(1669950000), account.getLast_post_epoch());
+        Assert.assertEquals((14 + 4 + 8) / 3.0, account.getAverage_text_length(), 0.001);
+
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"ab\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString());
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .DELETE()
+                .build();
+        webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+
+        MessageStats global = stats("/stats");
+        Assert.assertNull(global.getAccount_id());
+        Assert.assertEquals(2, global.getMessage_count());
+        Assert.assertEquals(Long.valueOf(1669947792), global.getFirst_post_epoch());
+        Assert.assertEquals(Long.valueOf(1669947800), global.getLast_post_epoch());
+        Assert.assertEquals((14 + 2) / 2.0, global.getAverage_text_length(), 0.001);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/2/stats for an account without messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: a message_count of 0 and no post times
+     */
+    @Test
+    public void statsOfAccountWithoutMessages() throws IOException, InterruptedException {
+        MessageStats actualResult = stats("/accounts/2/stats");
+        Assert.assertEquals(0, actualResult.getMessage_count());
+        Assert.assertNull(actualResult.getFirst_post_epoch());
+        Assert.assertNull(actualResult.getLast_post_epoch());
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ResponseCacheTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+    }
+
+    /**
+     * A message read once, then updated and read again, is returned with its new text and a JSON content type.
+     */
+    @Test
+    public void cachedMessageFollowsUpdate() throws IOException, InterruptedException {
+        HttpResponse<String> first = send(request("/messages/1"));
+        Assert.assertEquals("application/json", first.headers().firstValue("Content-Type").orElse(""));
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), objectMapper.readValue(first.body(), Message.class));
+
+        send(request("/messages/1").method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"changed\"}")));
+
+        Message actualResult = objectMapper.readValue(send(request("/messages/1")).body(), Message.class);
+        Assert.assertEquals(new Message(1, 1, "changed", 1669947792), actualResult);
+    }
+
+    /**
+     * An account's timeline read once reflects a message posted and a message deleted afterwards.
+     */
+    @Test
+    public void cachedTimelineFollowsInsertAndDelete() throws IOException, InterruptedException {
+        Assert.assertEquals(1, timeline().size());
+
+        send(request("/messages").POST(HttpRequest.BodyPublishers.ofString(
+                "{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1669947800}")));
+        Assert.assertEquals(List.of(
+                new Message(1, 1, "test message 1", 1669947792),
+                new Message(2, 1, "second", 1669947800)), timeline());
+
+        send(request("/messages/1").DELETE());
+        Assert.assertEquals(List.of(new Message(2, 1, "second", 1669947800)), timeline());
+    }
+
+    private List<Message> timeline() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(request("/accounts/1/messages"));
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ResponseCompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, create a new webClient and ObjectMapper
+     * for interacting locally on the web, and post enough messages that listing them is worth compressing.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        for (int i = 0; i < 40; i++) {
+            HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{" +
+                            "\"posted_by\":1, " +
+                            "\"message_text\": \"message number " + i + "\", " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * GET localhost:8080/messages and GET localhost:8080/accounts/1/messages with Accept-Encoding: gzip are gzip
+     * compressed, twice in a row for the cached timeline, and decompress to the same messages as an uncompressed
+     * response.
+     */
+    @Test
+    public void gzipWhenAccepted() throws IOException, InterruptedException {
+        for (String path : List.of("/messages", "/accounts/1/messages", "/accounts/1/messages")) {
+            HttpResponse<byte[]> plain = get(path, null);
+            Assert.assertTrue(plain.headers().firstValue("Content-Encoding").isEmpty());
+
+            HttpResponse<byte[]> gzipped = get(path, "gzip, deflate");
+            Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(""));
+            Assert.assertTrue(gzipped.body().length < plain.body().length);
+            byte[] body = new GZIPInputStream(new ByteArrayInputStream(gzipped.body())).readAllBytes();
+            Assert.assertEquals(messages(plain.body()), messages(body));
+            Assert.assertEquals(41, messages(body).size());
+        }
+    }
+
+    /**
+     * With Accept-Encoding: deflate the response is zlib compressed; with gzip;q=0 alone it is not compressed, and with
+     * gzip;q=0, * it is deflated, since * does not stand for a coding refused by name.
+     */
+    @Test
+    public void deflateAndRefusedEncodings() throws IOException, InterruptedException {
+        HttpResponse<byte[]> deflated = get("/messages", "deflate");
+        Assert.assertEquals("deflate", deflated.headers().firstValue("Content-Encoding").orElse(""));
+        byte[] body = new InflaterInputStream(new ByteArrayInputStream(deflated.body())).readAllBytes();
+        Assert.assertEquals(41, messages(body).size());
+
+        Assert.assertTrue(get("/messages", "gzip;q=0").headers().firstValue("Content-Encoding").isEmpty());
+        Assert.assertEquals("deflate",
+                get("/messages", "gzip;q=0, *").headers().firstValue("Content-Encoding").orElse(""));
+        Assert.assertTrue(get("/messages", "*;q=0").headers().firstValue("Content-Encoding").isEmpty());
+    }
+
+    /**
+     * A single message is below the size threshold and is sent uncompressed even when gzip is accepted.
+     */
+    @Test
+    public void smallResponseNotCompressed() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = get("/messages/1", "gzip");
+        Assert.assertTrue(response.headers().firstValue("Content-Encoding").isEmpty());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792),
+                objectMapper.readValue(new String(response.body(), StandardCharsets.UTF_8), Message.class));
+    }
+
+    private List<Message> messages(byte[] json) throws IOException {
+        return objectMapper.readValue(json, new TypeReference<List<Message>>(){});
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesByTimeRangeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Two more messages are posted, one an hour after the seeded message and
+     * one a day after it.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        postMessage("an hour later", 1669947792 + 3600);
+        postMessage("a day later", 1669947792 + 86400);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void postMessage(String text, long epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?since=1669947792&until=1669951392
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of the seeded message and the one posted an hour later
+     */
+    @Test
+    public void getMessagesSinceUntil() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?since=1669947792&until=1669951392");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = List.of(
+                new Message(1, 1, "test message 1", 1669947792),
+                new Message(2, 1, "an hour later", 1669951392));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages?since=1669947793
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of the two messages posted after the seeded one
+     */
+    @Test
+    public void getMessagesForUserSince() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/1/messages?since=1669947793");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, actualResult.size());
+        Assert.assertEquals(3, actualResult.get(1).getMessage_id());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?until=yesterday
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesInvalidRange() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?until=yesterday").statusCode());
+    }
+}
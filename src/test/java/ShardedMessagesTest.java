@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.ShardRouter;
+import Model.Account;
+import Model.Message;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Runs with db.shards above 1, which ShardRouter reads once per JVM, so the sharded surefire execution in pom.xml runs
+ * this class in a JVM of its own and the default execution leaves it out.
+ */
+public class ShardedMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        Assume.assumeTrue(ShardRouter.shardCount() > 1);
+        Assume.assumeTrue(AppConfig.getString("storage.engine", "jdbc").equals("jdbc"));
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Account register(String username) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("POST", "/register",
+                "{\"username\": \"" + username + "\", \"password\": \"password\"}");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Account.class);
+    }
+
+    private Message post(int accountId, String text, long epoch) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("POST", "/messages",
+                "{\"posted_by\":" + accountId + ", \"message_text\": \"" + text + "\", \"time_posted_epoch\": " + epoch + "}");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private List<Message> list(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", path, "");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+    }
+
+    /**
+     * Registers accounts until they cover at least two shards.
+     */
+    private List<Account> accountsOnSeveralShards() throws IOException, InterruptedException {
+        List<Account> accounts = new ArrayList<>();
+        Set<Integer> shards = new HashSet<>();
+        for (int i = 0; i < 64 && (shards.size() < 2 || accounts.size() < 4); i++) {
+            Account account = register("sharded" + i);
+            accounts.add(account);
+            shards.add(ShardRouter.shardForAccount(account.getAccount_id()));
+        }
+        Assert.assertTrue("accounts should land on more than one shard", shards.size() >= 2);
+        return accounts;
+    }
+
+    /**
+     * Every message is stored as a row of the shard of its poster, and its message_id is that row id * shards + shard.
+     */
+    @Test
+    public void messageIdsEncodeTheShardAndRowOfThePoster() throws IOException, InterruptedException, SQLException {
+        List<Account> accounts = accountsOnSeveralShards();
+        for (int round = 0; round < 3; round++) {
+            for (Account account : accounts) {
+                Message message = post(account.getAccount_id(), "round " + round + " by " + account.getUsername(),
+                        1669947800L + round);
+                int shard = ShardRouter.shardForAccount(account.getAccount_id());
+                Assert.assertEquals(shard, message.getMessage_id() % ShardRouter.shardCount());
+                Assert.assertEquals(shard, ShardRouter.shardForMessage(message.getMessage_id()));
+                Assert.assertEquals(message.getMessage_id(),
+                        ShardRouter.messageId(ShardRouter.localId(message.getMessage_id()), shard));
+
+                String sql = "SELECT posted_by, message_text FROM message WHERE message_id = ?";
+                try (PreparedStatement ps = ConnectionUtil.getShardConnection(shard).prepareStatement(sql)) {
+                    ps.setInt(1, message.getMessage_id() / ShardRouter.shardCount());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        Assert.assertTrue(rs.next());
+                        Assert.assertEquals(account.getAccount_id(), rs.getInt("posted_by"));
+                        Assert.assertEquals(message.getMessage_text(), rs.getString("message_text"));
+                    }
+                }
+
+                HttpResponse<String> byId = send("GET", "/messages/" + message.getMessage_id(), "");
+                Assert.assertEquals(message, objectMapper.readValue(byId.body(), Message.class));
+            }
+        }
+    }
+
+    /**
+     * GET /messages gathers every shard and returns one list in message_id order; a timeline only holds the messages
+     * of its account, from its one shard.
+     */
+    @Test
+    public void allMessagesAreGatheredFromEveryShardInIdOrder() throws IOException, InterruptedException {
+        List<Account> accounts = accountsOnSeveralShards();
+        Set<Integer> posted = new HashSet<>();
+        for (int round = 0; round < 3; round++) {
+            for (Account account : accounts) {
+                posted.add(post(account.getAccount_id(), "message " + round, 1669947800L + round).getMessage_id());
+            }
+        }
+
+        List<Message> all = list("/messages");
+        Set<Integer> listed = new HashSet<>();
+        Set<Integer> shardsListed = new HashSet<>();
+        for (int i = 0; i < all.size(); i++) {
+            if (i > 0) {
+                Assert.assertTrue("ids should ascend", all.get(i - 1).getMessage_id() < all.get(i).getMessage_id());
+            }
+            listed.add(all.get(i).getMessage_id());
+            shardsListed.add(ShardRouter.shardForMessage(all.get(i).getMessage_id()));
+        }
+        Assert.assertTrue(listed.containsAll(posted));
+        Assert.assertEquals(posted.size() + 1, all.size());
+        Assert.assertTrue(shardsListed.size() >= 2);
+
+        for (Account account : accounts) {
+            List<Message> timeline = list("/accounts/" + account.getAccount_id() + "/messages");
+            Assert.assertEquals(3, timeline.size());
+            for (Message message : timeline) {
+                Assert.assertEquals(account.getAccount_id(), message.getPosted_by());
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.TrendingTerm;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class TrendingTermsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. The reset also clears the trending counts.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/trending after posting three messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the terms of the new messages, most used first, without common words; a term used twice in
+     *  one message counts once
+     */
+    @Test
+    public void trendingTermsOfNewMessages() throws IOException, InterruptedException {
+        postMessage("pizza party tonight");
+        postMessage("Pizza is great, pizza!");
+        postMessage("the party");
+
+        HttpResponse<String> response = get("/trending");
+        Assert.assertEquals(200, response.statusCode());
+        List<TrendingTerm> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<TrendingTerm>>(){});
+        Assert.assertEquals(List.of(
+                new TrendingTerm("party", 2),
+                new TrendingTerm("pizza", 2),
+                new TrendingTerm("great", 1),
+                new TrendingTerm("tonight", 1)), actualResult);
+
+        List<TrendingTerm> top = objectMapper.readValue(get("/trending?limit=1").body(), new TypeReference<List<TrendingTerm>>(){});
+        Assert.assertEquals(List.of(new TrendingTerm("party", 2)), top);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/trending with a window of 0 minutes or longer than the one kept
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void trendingOutOfRange() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/trending?minutes=0").statusCode());
+        Assert.assertEquals(400, get("/trending?minutes=100000").statusCode());
+        Assert.assertEquals(400, get("/trending?limit=x").statusCode());
+    }
+}